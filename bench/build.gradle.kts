@@ -0,0 +1,40 @@
+plugins {
+    id("java")
+    application
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+group = "io.github.gmodena.searchy"
+version = "0.5.0-SNAPSHOT"
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    implementation(project(":searchy-index"))
+}
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(22))
+    }
+}
+
+tasks.withType<JavaCompile> {
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+}
+
+// Recall and latency sweep, e.g. ./gradlew :searchy-bench:run --args="--size 100000 --trees 4,16"
+application {
+    mainClass = "io.github.gmodena.searchy.bench.Evaluate"
+    applicationDefaultJvmArgs = listOf("--add-modules", "jdk.incubator.vector")
+}
+
+jmh {
+    jmhVersion = "1.37"
+    jvmArgsAppend = listOf("--add-modules", "jdk.incubator.vector")
+    // Select benchmarks with -Pjmh.includes=<regex>, e.g. -Pjmh.includes=QueryBenchmark
+    includes = listOfNotNull(project.findProperty("jmh.includes") as String?)
+    resultFormat = "JSON"
+}
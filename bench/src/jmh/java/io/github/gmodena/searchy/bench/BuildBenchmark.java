@@ -0,0 +1,58 @@
+package io.github.gmodena.searchy.bench;
+
+import io.github.gmodena.searchy.Index;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of {@link Index.Builder#build()}, including copying the vectors into the builder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class BuildBenchmark {
+    @Param({"16", "128"})
+    int dimension;
+
+    @Param({"10000", "100000"})
+    int size;
+
+    @Param({"4", "16"})
+    int numTrees;
+
+    @Param({"16", "64"})
+    int maxNodeSize;
+
+    private List<float[]> vectors;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        vectors = Datasets.uniform(size, dimension, Datasets.SEED);
+    }
+
+    @Benchmark
+    public Index build() {
+        return new Index.Builder()
+                .withNumTrees(numTrees)
+                .withMaxNodeSize(maxNodeSize)
+                .withRandomSeed(Datasets.SEED)
+                .add(vectors)
+                .build();
+    }
+}
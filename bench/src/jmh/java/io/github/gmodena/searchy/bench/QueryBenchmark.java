@@ -0,0 +1,75 @@
+package io.github.gmodena.searchy.bench;
+
+import io.github.gmodena.searchy.Candidate;
+import io.github.gmodena.searchy.Index;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a single {@link Index#query(float[], Integer)}, and of {@link Index#queryBatch(List, Integer)}
+ * over a batch of queries. Queries are drawn from the same distribution as the indexed vectors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class QueryBenchmark {
+    private static final int QUERIES = 1024;
+
+    @Param({"16", "128"})
+    int dimension;
+
+    @Param({"10000", "100000"})
+    int size;
+
+    @Param({"4", "16"})
+    int numTrees;
+
+    @Param({"16", "64"})
+    int maxNodeSize;
+
+    @Param({"10"})
+    int k;
+
+    private Index index;
+    private List<float[]> queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        index = new Index.Builder()
+                .withNumTrees(numTrees)
+                .withMaxNodeSize(maxNodeSize)
+                .withRandomSeed(Datasets.SEED)
+                .add(Datasets.uniform(size, dimension, Datasets.SEED))
+                .build();
+        queries = Datasets.uniform(QUERIES, dimension, Datasets.SEED + 1);
+    }
+
+    @Benchmark
+    public List<Candidate> query() {
+        next = (next + 1) % QUERIES;
+        return index.query(queries.get(next), k);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<List<Candidate>> queryBatch() {
+        return index.queryBatch(queries, k);
+    }
+}
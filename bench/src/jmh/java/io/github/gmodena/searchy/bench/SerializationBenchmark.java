@@ -0,0 +1,71 @@
+package io.github.gmodena.searchy.bench;
+
+import io.github.gmodena.searchy.Index;
+import io.github.gmodena.searchy.IndexSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link IndexSerializer} round trips of a built index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class SerializationBenchmark {
+    @Param({"16", "128"})
+    int dimension;
+
+    @Param({"10000", "100000"})
+    int size;
+
+    @Param({"8"})
+    int numTrees;
+
+    @Param({"32"})
+    int maxNodeSize;
+
+    private Index index;
+    private byte[] serialized;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        index = new Index.Builder()
+                .withNumTrees(numTrees)
+                .withMaxNodeSize(maxNodeSize)
+                .withRandomSeed(Datasets.SEED)
+                .add(Datasets.uniform(size, dimension, Datasets.SEED))
+                .build();
+        serialized = IndexSerializer.serialize(index);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return IndexSerializer.serialize(index);
+    }
+
+    @Benchmark
+    public Index deserialize() throws IOException, ClassNotFoundException {
+        return IndexSerializer.deserialize(serialized);
+    }
+
+    @Benchmark
+    public Index roundTrip() throws IOException, ClassNotFoundException {
+        return IndexSerializer.deserialize(IndexSerializer.serialize(index));
+    }
+}
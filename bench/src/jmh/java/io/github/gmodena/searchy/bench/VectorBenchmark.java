@@ -0,0 +1,78 @@
+package io.github.gmodena.searchy.bench;
+
+import io.github.gmodena.searchy.bsp.JVector;
+import io.github.gmodena.searchy.bsp.Kernel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distance kernels. {@link JVector#dot(JVector)} and {@link JVector#distance(JVector)} wrap arrays
+ * in objects, the array and {@link Kernel} variants run directly on float arrays.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class VectorBenchmark {
+    @Param({"16", "128", "768"})
+    int dimension;
+
+    private float[] a;
+    private float[] b;
+    private JVector va;
+    private JVector vb;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var random = new SplittableRandom(Datasets.SEED);
+        a = Datasets.vector(dimension, random);
+        b = Datasets.vector(dimension, random);
+        va = new JVector(a);
+        vb = new JVector(b);
+    }
+
+    @Benchmark
+    public float jvectorDot() {
+        return va.dot(vb);
+    }
+
+    @Benchmark
+    public float jvectorDistance() {
+        return va.distance(vb);
+    }
+
+    @Benchmark
+    public float scalarDot() {
+        return Kernel.SCALAR.dot(a, 0, b, 0, dimension);
+    }
+
+    @Benchmark
+    public float scalarSquaredDistance() {
+        return Kernel.SCALAR.squaredDistance(a, 0, b, 0, dimension);
+    }
+
+    @Benchmark
+    public float simdDot() {
+        return Kernel.SIMD.dot(a, 0, b, 0, dimension);
+    }
+
+    @Benchmark
+    public float simdSquaredDistance() {
+        return Kernel.SIMD.squaredDistance(a, 0, b, 0, dimension);
+    }
+}
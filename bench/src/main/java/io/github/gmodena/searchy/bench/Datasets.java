@@ -0,0 +1,63 @@
+package io.github.gmodena.searchy.bench;
+
+import io.github.gmodena.searchy.bsp.VectorStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic inputs shared by benchmarks and the evaluation harness. Values are uniform in [-1, 1), and a seed always
+ * produces the same vectors, so that runs are comparable.
+ */
+public final class Datasets {
+    public static final long SEED = 42L;
+
+    private Datasets() {
+    }
+
+    /**
+     * @param size
+     * @param dimension
+     * @param seed
+     * @return
+     */
+    public static List<float[]> uniform(int size, int dimension, long seed) {
+        var random = new SplittableRandom(seed);
+        var vectors = new ArrayList<float[]>(size);
+        for (int i = 0; i < size; i++) {
+            vectors.add(vector(dimension, random));
+        }
+        return vectors;
+    }
+
+    /**
+     * Like {@link #uniform(int, int, long)}, in a contiguous store.
+     *
+     * @param size
+     * @param dimension
+     * @param seed
+     * @return
+     */
+    public static VectorStore uniformStore(int size, int dimension, long seed) {
+        var random = new SplittableRandom(seed);
+        var store = new VectorStore(dimension, size);
+        for (int i = 0; i < size; i++) {
+            store.add(vector(dimension, random));
+        }
+        return store;
+    }
+
+    /**
+     * @param dimension
+     * @param random
+     * @return
+     */
+    public static float[] vector(int dimension, SplittableRandom random) {
+        var vector = new float[dimension];
+        for (int j = 0; j < dimension; j++) {
+            vector[j] = (float) random.nextDouble(-1.0, 1.0);
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,229 @@
+package io.github.gmodena.searchy.bench;
+
+import io.github.gmodena.searchy.Candidate;
+import io.github.gmodena.searchy.FlatIndex;
+import io.github.gmodena.searchy.Index;
+import io.github.gmodena.searchy.VectorFiles;
+import io.github.gmodena.searchy.bsp.Kernel;
+import io.github.gmodena.searchy.bsp.Metric;
+import io.github.gmodena.searchy.bsp.VectorStore;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Recall and latency of {@link Index} across build parameters and query budgets, against exact
+ * ground truth from a {@link FlatIndex}. Runs offline, and prints one CSV row per combination of
+ * {@code numTrees}, {@code maxNodeSize} and {@code searchK}:
+ * <pre>
+ * num_trees,max_node_size,search_k,k,recall,qps,p50_us,p99_us,build_ms,memory_mb
+ * </pre>
+ * Queries run one at a time on a single thread, so that latencies are not skewed by contention.
+ * Memory is the growth of the used heap across the build, after a full GC, so it is an estimate.
+ * <p>
+ * Options, all optional:
+ * <pre>
+ * --base PATH          .fvecs or .npy vectors to index, instead of synthetic ones
+ * --queries PATH       .fvecs or .npy queries. Defaults to a sample of the indexed vectors
+ * --size N             number of synthetic vectors (10000)
+ * --dimension N        dimension of synthetic vectors (64)
+ * --query-count N      number of sampled or synthetic queries (1000)
+ * --k N                neighbors per query (10)
+ * --trees LIST         numTrees values (1,4,16)
+ * --max-node-size LIST maxNodeSize values (16,64)
+ * --search-k LIST      searchK values, "none" for the default search (none,1000,10000)
+ * --metric NAME        {@link Metric} name (EUCLIDEAN)
+ * --simd               use {@link Kernel#SIMD}
+ * --seed N             seed of data generation and builds (42)
+ * --output PATH        CSV file, instead of standard output
+ * </pre>
+ */
+public final class Evaluate {
+    private static final String HEADER = "num_trees,max_node_size,search_k,k,recall,qps,p50_us,p99_us,build_ms,memory_mb";
+
+    private Evaluate() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        var options = parse(args);
+        var seed = Long.parseLong(options.getOrDefault("seed", String.valueOf(Datasets.SEED)));
+        var metric = Metric.valueOf(options.getOrDefault("metric", Metric.EUCLIDEAN.name()).toUpperCase(Locale.ROOT));
+        var simd = options.containsKey("simd");
+        var k = Integer.parseInt(options.getOrDefault("k", "10"));
+        var trees = integers(options.getOrDefault("trees", "1,4,16"));
+        var maxNodeSizes = integers(options.getOrDefault("max-node-size", "16,64"));
+        var searchKs = searchKs(options.getOrDefault("search-k", "none,1000,10000"));
+        var queryCount = Integer.parseInt(options.getOrDefault("query-count", "1000"));
+
+        var base = options.containsKey("base")
+                ? read(Path.of(options.get("base")))
+                : Datasets.uniformStore(Integer.parseInt(options.getOrDefault("size", "10000")),
+                Integer.parseInt(options.getOrDefault("dimension", "64")), seed);
+        var queries = options.containsKey("queries")
+                ? read(Path.of(options.get("queries")))
+                : sample(base, queryCount, seed + 1);
+        if (queries.dimension() != base.dimension()) {
+            throw new IllegalArgumentException("Queries have dimension " + queries.dimension()
+                    + ", expected " + base.dimension());
+        }
+
+        var truth = groundTruth(base, queries, k, metric, simd);
+
+        try (var out = options.containsKey("output") ? new PrintStream(Files.newOutputStream(Path.of(options.get("output"))))
+                : null) {
+            var csv = out != null ? out : System.out;
+            csv.println(HEADER);
+            for (var numTrees : trees) {
+                for (var maxNodeSize : maxNodeSizes) {
+                    sweep(csv, base, queries, truth, k, searchKs, numTrees, maxNodeSize, metric, simd, seed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Build one index, and evaluate it with each searchK. The index is unreachable once this returns,
+     * so that it does not count towards the memory of the next build.
+     */
+    private static void sweep(PrintStream csv, VectorStore base, VectorStore queries, int[][] truth, int k,
+                              List<Integer> searchKs, int numTrees, int maxNodeSize, Metric metric, boolean simd,
+                              long seed) {
+        var before = usedMemory();
+        var start = System.nanoTime();
+        var index = new Index.Builder()
+                .withNumTrees(numTrees)
+                .withMaxNodeSize(maxNodeSize)
+                .withRandomSeed(seed)
+                .withMetric(metric)
+                .withSIMD(simd)
+                .deduplicate(false)
+                .add(IntStream.range(0, base.size()).mapToObj(base::get).iterator())
+                .build();
+        var buildMillis = (System.nanoTime() - start) / 1e6;
+        var memory = (usedMemory() - before) / (1024.0 * 1024.0);
+
+        for (var searchK : searchKs) {
+            csv.println(evaluate(index, queries, truth, k, searchK, numTrees, maxNodeSize, buildMillis, memory));
+            csv.flush();
+        }
+    }
+
+    private static String evaluate(Index index, VectorStore queries, int[][] truth, int k, Integer searchK,
+                                   int numTrees, int maxNodeSize, double buildMillis, double memory) {
+        var latencies = new long[queries.size()];
+        var hits = 0L;
+        var expected = 0L;
+        var total = 0L;
+        for (int q = 0; q < queries.size(); q++) {
+            var query = queries.get(q);
+            var start = System.nanoTime();
+            var result = index.query(query, k, searchK);
+            latencies[q] = System.nanoTime() - start;
+            total += latencies[q];
+
+            var exact = truth[q];
+            for (var candidate : result) {
+                for (var position : exact) {
+                    if (position == candidate.id()) {
+                        hits++;
+                        break;
+                    }
+                }
+            }
+            expected += exact.length;
+        }
+        Arrays.sort(latencies);
+        return String.format(Locale.ROOT, "%d,%d,%s,%d,%.4f,%.1f,%.1f,%.1f,%.1f,%.1f",
+                numTrees, maxNodeSize, searchK == null ? "none" : searchK, k,
+                expected == 0 ? 1.0 : (double) hits / expected,
+                queries.size() / (total / 1e9),
+                percentile(latencies, 0.50) / 1e3,
+                percentile(latencies, 0.99) / 1e3,
+                buildMillis, memory);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static long usedMemory() {
+        var runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static VectorStore read(Path path) throws IOException {
+        var name = path.getFileName().toString();
+        if (name.endsWith(".fvecs")) {
+            return VectorFiles.readFvecs(path);
+        }
+        if (name.endsWith(".npy")) {
+            return VectorFiles.readNpy(path);
+        }
+        throw new IllegalArgumentException("Unsupported vector file " + path + ", expected .fvecs or .npy");
+    }
+
+    private static VectorStore sample(VectorStore vectors, int count, long seed) {
+        var random = new SplittableRandom(seed);
+        var sample = new VectorStore(vectors.dimension(), count);
+        for (int i = 0; i < count; i++) {
+            sample.add(vectors.get(random.nextInt(vectors.size())));
+        }
+        return sample;
+    }
+
+    /**
+     * Ids of the exact k nearest neighbors of each query, by brute force with a {@link FlatIndex}.
+     */
+    private static int[][] groundTruth(VectorStore base, VectorStore queries, int k, Metric metric, boolean simd) {
+        var exact = new FlatIndex.Builder()
+                .withMetric(metric)
+                .withSIMD(simd)
+                .add(IntStream.range(0, base.size()).mapToObj(base::get).iterator())
+                .build();
+        var results = exact.queryBatch(IntStream.range(0, queries.size()).mapToObj(queries::get).toList(), k);
+        return results.stream()
+                .map(result -> result.stream().mapToInt(Candidate::id).toArray())
+                .toArray(int[][]::new);
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        var options = new HashMap<String, String>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            var key = args[i].substring(2);
+            if (key.equals("simd")) {
+                options.put(key, "true");
+            } else if (i + 1 < args.length) {
+                options.put(key, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+        }
+        return options;
+    }
+
+    private static List<Integer> integers(String list) {
+        return Arrays.stream(list.split(",")).map(String::trim).map(Integer::valueOf).toList();
+    }
+
+    private static List<Integer> searchKs(String list) {
+        var searchKs = new ArrayList<Integer>();
+        for (var value : list.split(",")) {
+            searchKs.add(value.trim().equals("none") ? null : Integer.valueOf(value.trim()));
+        }
+        return searchKs;
+    }
+}
@@ -23,8 +23,13 @@ dependencies {
     testImplementation("org.junit.jupiter:junit-jupiter:5.9.2")
 }
 
+tasks.withType<JavaCompile> {
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+}
+
 tasks.test {
     useJUnitPlatform()
+    jvmArgs("--add-modules", "jdk.incubator.vector")
 }
 
 tasks.spotbugsMain {
@@ -46,6 +51,7 @@ tasks.javadoc {
         isVersion = true   // Include version information
         links("https://docs.oracle.com/en/java/javase/21/docs/api/") // Add links to the JDK documentation
         addStringOption("Xdoclint:none", "-quiet")
+        addStringOption("-add-modules", "jdk.incubator.vector")
     }
 }
 
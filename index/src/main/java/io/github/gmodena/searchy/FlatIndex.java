@@ -0,0 +1,262 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.Kernel;
+import io.github.gmodena.searchy.bsp.Metric;
+import io.github.gmodena.searchy.bsp.VectorStore;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * An exact index, that scores every vector against each query.
+ * <p>
+ * Use it for small collections, or as ground truth for the approximate results of {@link Index}.
+ * Vectors are kept in a contiguous {@link VectorStore}, and scanned in blocks: a block of
+ * {@link #VECTOR_BLOCK} vectors is scored against a block of up to {@link #QUERY_BLOCK} queries while it is in cache,
+ * and each query keeps a bounded top k heap. A single query splits the vectors across the common
+ * fork join pool, a batch runs query blocks in parallel.
+ */
+public class FlatIndex implements Serializable {
+    /**
+     * Vectors scored against a block of queries at a time.
+     */
+    public static final int VECTOR_BLOCK = 256;
+    /**
+     * Queries scanned together by a batch task.
+     */
+    public static final int QUERY_BLOCK = 16;
+    // Vectors per task of a single query. Smaller scans are not worth forking.
+    private static final int TASK_SIZE = 1 << 14;
+
+    private final VectorStore vectors;
+    private final int[] ids;
+    private final Metric metric;
+    private final Kernel kernel;
+
+    private FlatIndex(Builder builder) {
+        builder.vectors.trimToSize();
+        this.vectors = builder.vectors;
+        this.ids = Arrays.copyOf(builder.ids, builder.vectors.size());
+        this.metric = builder.metric;
+        this.kernel = builder.simd ? Kernel.SIMD : Kernel.SCALAR;
+    }
+
+    /**
+     * Query the index with the given vector and return the exact top k candidates.
+     *
+     * @param vector
+     * @param k
+     * @return
+     */
+    public List<Candidate> query(float[] vector, Integer k) {
+        var query = metric.prepare(Query.checkDimension(vectors.dimension(), vector));
+        var topK = Query.checkK(k);
+        var tasks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), vectors.size() / TASK_SIZE));
+        if (tasks == 1) {
+            var heap = new TopK(topK);
+            scan(new float[][]{query}, new TopK[]{heap}, 0, vectors.size());
+            return candidates(heap);
+        }
+        var chunk = (vectors.size() + tasks - 1) / tasks;
+        return candidates(IntStream.range(0, tasks).parallel()
+                .mapToObj(t -> {
+                    var heap = new TopK(topK);
+                    scan(new float[][]{query}, new TopK[]{heap}, t * chunk, Math.min(vectors.size(), (t + 1) * chunk));
+                    return heap;
+                })
+                .reduce((a, b) -> {
+                    a.merge(b);
+                    return a;
+                })
+                .orElseThrow());
+    }
+
+    /**
+     * Query the index with each of the given vectors, in parallel on the common fork join pool.
+     *
+     * @param vectors
+     * @param k
+     * @return the exact top k candidates of each vector, in the order of vectors
+     */
+    public List<List<Candidate>> queryBatch(List<float[]> vectors, Integer k) {
+        return queryBatch(vectors, k, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Query the index with each of the given vectors, in parallel on executor.
+     * Each block of {@link #QUERY_BLOCK} vectors runs as its own task.
+     *
+     * @param vectors
+     * @param k
+     * @param executor
+     * @return the exact top k candidates of each vector, in the order of vectors
+     */
+    public List<List<Candidate>> queryBatch(List<float[]> vectors, Integer k, Executor executor) {
+        Objects.requireNonNull(executor, "executor must not be null");
+        var topK = Query.checkK(k);
+        var queries = vectors.stream().map(vector -> metric.prepare(Query.checkDimension(this.vectors.dimension(), vector))).toArray(float[][]::new);
+        var futures = new ArrayList<CompletableFuture<List<List<Candidate>>>>();
+        for (var from = 0; from < queries.length; from += QUERY_BLOCK) {
+            var block = Arrays.copyOfRange(queries, from, Math.min(queries.length, from + QUERY_BLOCK));
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                var heaps = new TopK[block.length];
+                for (var q = 0; q < block.length; q++) {
+                    heaps[q] = new TopK(topK);
+                }
+                scan(block, heaps, 0, this.vectors.size());
+                return Arrays.stream(heaps).map(this::candidates).toList();
+            }, executor));
+        }
+        return Futures.joinAll(futures).stream().flatMap(List::stream).toList();
+    }
+
+    /**
+     * Score positions from up to, excluding, to against each query, one block of vectors at a time.
+     */
+    private void scan(float[][] queries, TopK[] heaps, int from, int to) {
+        for (var block = from; block < to; block += VECTOR_BLOCK) {
+            var end = Math.min(to, block + VECTOR_BLOCK);
+            for (var q = 0; q < queries.length; q++) {
+                var query = queries[q];
+                var heap = heaps[q];
+                for (var i = block; i < end; i++) {
+                    heap.offer(i, metric.distance(vectors, i, query, kernel));
+                }
+            }
+        }
+    }
+
+    private List<Candidate> candidates(TopK heap) {
+        var positions = new int[heap.size()];
+        var distances = new float[heap.size()];
+        heap.drain(positions, distances);
+        // Candidate makes its own copy of buffer, so each vector is copied once.
+        var buffer = new float[vectors.dimension()];
+        var result = new ArrayList<Candidate>(positions.length);
+        for (var i = 0; i < positions.length; i++) {
+            vectors.get(positions[i], buffer);
+            result.add(new Candidate(buffer, ids[positions[i]], metric.finish(distances[i])));
+        }
+        return result;
+    }
+
+    /**
+     * Number of indexed vectors.
+     *
+     * @return
+     */
+    public int size() {
+        return vectors.size();
+    }
+
+    public Metric metric() {
+        return metric;
+    }
+
+    public static class Builder {
+        private boolean simd = false;
+        private Metric metric = Metric.EUCLIDEAN;
+        private VectorStore vectors;
+        private int[] ids = new int[16];
+
+        /**
+         * Score with the {@link Kernel#SIMD} distance kernel instead of {@link Kernel#SCALAR}.
+         *
+         * @param simd
+         * @return
+         */
+        public Builder withSIMD(boolean simd) {
+            this.simd = simd;
+            return this;
+        }
+
+        /**
+         * Rank candidates by the given metric. Defaults to {@link Metric#EUCLIDEAN}.
+         *
+         * @param metric
+         * @return
+         */
+        public Builder withMetric(Metric metric) {
+            this.metric = Objects.requireNonNull(metric, "metric must not be null");
+            return this;
+        }
+
+        /**
+         * @param vectors
+         * @param ids
+         * @return
+         */
+        public Builder add(List<float[]> vectors, List<Integer> ids) {
+            if (vectors.size() != ids.size()) {
+                throw new IllegalArgumentException("Vectors and IDs must be the same size.");
+            }
+            for (var i = 0; i < vectors.size(); i++) {
+                add(vectors.get(i), ids.get(i));
+            }
+            return this;
+        }
+
+        /**
+         * Add vectors with ids following the vectors added so far.
+         *
+         * @param vectors
+         * @return
+         */
+        public Builder add(List<float[]> vectors) {
+            return add(vectors.iterator());
+        }
+
+        /**
+         * Add vectors as they are iterated, with ids following the vectors added so far.
+         *
+         * @param vectors
+         * @return
+         */
+        public Builder add(Iterator<float[]> vectors) {
+            while (vectors.hasNext()) {
+                add(vectors.next(), size());
+            }
+            return this;
+        }
+
+        /**
+         * @param vector
+         * @param id
+         * @return
+         */
+        public Builder add(float[] vector, Integer id) {
+            if (vectors == null) {
+                vectors = new VectorStore(vector.length);
+            }
+            var position = vectors.add(vector);
+            if (position == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            }
+            ids[position] = id;
+            return this;
+        }
+
+        private int size() {
+            return vectors == null ? 0 : vectors.size();
+        }
+
+        /**
+         * @return
+         */
+        public FlatIndex build() {
+            if (vectors == null) {
+                throw new IllegalStateException("Cannot build an index without vectors.");
+            }
+            metric.prepare(vectors);
+            return new FlatIndex(this);
+        }
+    }
+}
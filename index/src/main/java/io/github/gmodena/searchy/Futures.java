@@ -0,0 +1,31 @@
+package io.github.gmodena.searchy;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Helpers to wait for the tasks of batch and sharded queries.
+ */
+final class Futures {
+    private Futures() {
+    }
+
+    /**
+     * Wait for all futures and return their results, in order.
+     * A task that failed with an unchecked exception rethrows it, rather than a {@link CompletionException}.
+     *
+     * @param futures
+     * @return
+     */
+    static <T> List<T> joinAll(List<CompletableFuture<T>> futures) {
+        try {
+            return futures.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -1,50 +1,175 @@
 package io.github.gmodena.searchy;
 
-import io.github.gmodena.searchy.bsp.JVector;
-import io.github.gmodena.searchy.bsp.Node;
+import io.github.gmodena.searchy.bsp.FlatTree;
+import io.github.gmodena.searchy.bsp.GrowableTree;
+import io.github.gmodena.searchy.bsp.Kernel;
+import io.github.gmodena.searchy.bsp.MappedTree;
+import io.github.gmodena.searchy.bsp.MappedVectors;
+import io.github.gmodena.searchy.bsp.Metric;
 import io.github.gmodena.searchy.bsp.Plane;
+import io.github.gmodena.searchy.bsp.ProductQuantizedVectors;
+import io.github.gmodena.searchy.bsp.QuantizedVectors;
+import io.github.gmodena.searchy.bsp.Tree;
+import io.github.gmodena.searchy.bsp.VectorStore;
+import io.github.gmodena.searchy.bsp.Vectors;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
 
 
 /**
  * A id is a collection of trees. Each tree is a binary space partitioning tree.
+ * <p>
+ * Vectors are kept in a contiguous {@link VectorStore}. Tree leaves hold positions
+ * in the store, which are mapped back to vector ids at query time.
+ * <p>
+ * An index can also be opened from an {@link IndexFile}, in which case vectors and trees
+ * are queried in place from the memory mapped file.
+ * <p>
+ * Quantized indexes score candidates against int8 {@link QuantizedVectors} codes, or against
+ * {@link ProductQuantizedVectors} codes with per query lookup tables. Full precision vectors
+ * are only kept to re-rank the best candidates, if enabled with {@link Builder#withRerank(int)}.
  */
 public class Index implements Serializable {
+    private static final System.Logger LOGGER = System.getLogger(Index.class.getName());
+
     private final Integer maxNodeSize;
     private final Integer numTrees;
     private final boolean deduplicate;
+    private final Kernel kernel;
+    private final Metric metric;
     private final Random random;
-    private List<JVector> vectors;
-    private List<Integer> vectorIds;
-    private ArrayList<Node> trees;
+    private final int rerank;
+    private final double compactionThreshold;
+    private final Map<Integer, Integer> duplicates;
+    private final int queryCacheSize;
+    private final long queryCacheBytes;
+    private final boolean recordSearchStats;
+    private volatile IndexState state;
+    private transient volatile QueryCache queryCache;
+    private transient volatile SearchStats searchStats;
+    private transient Executor compactionExecutor;
+    private transient volatile CompletableFuture<Void> compaction;
+    private transient volatile Throwable compactionFailure;
 
     private Index(Builder builder) {
         this.numTrees = builder.numTrees;
         this.maxNodeSize = builder.maxSize;
         this.deduplicate = builder.deduplicate;
-        this.vectors = builder.vectors;
-        this.vectorIds = builder.vectorIds;
-        this.trees = builder.trees;
+        this.kernel = builder.simd ? Kernel.SIMD : Kernel.SCALAR;
+        this.metric = builder.metric;
+        builder.vectors.trimToSize();
         this.random = builder.random;
+        this.compactionThreshold = builder.compactionThreshold;
+        this.compactionExecutor = builder.compactionExecutor;
+        this.duplicates = Collections.unmodifiableMap(builder.duplicates);
+        this.queryCacheSize = builder.queryCacheSize;
+        this.queryCacheBytes = builder.queryCacheBytes;
+        this.queryCache = queryCacheSize > 0 ? new QueryCache(queryCacheSize, queryCacheBytes) : null;
+        this.recordSearchStats = builder.searchStats;
+        this.searchStats = recordSearchStats ? new SearchStats() : null;
+
+        var quantize = builder.quantize || builder.subspaces > 0;
+        this.rerank = quantize ? builder.rerank : 0;
+
+        var trees = buildIndex(builder.vectors, builder.positions);
+        Vectors vectors = builder.vectors;
+        Vectors quantized = null;
+        if (quantize) {
+            quantized = builder.subspaces > 0
+                    ? ProductQuantizedVectors.encode(builder.vectors, builder.subspaces, random, kernel)
+                    : QuantizedVectors.encode(builder.vectors);
+            // Full precision vectors are only needed to re-rank.
+            vectors = rerank > 0 ? builder.vectors : null;
+        }
+        this.state = new IndexState(vectors, quantized,
+                builder.vectorIds.stream().mapToInt(Integer::intValue).toArray(),
+                builder.positions.stream().mapToInt(Integer::intValue).toArray(),
+                trees);
+    }
 
-        this.buildIndex();
+    Index(Integer numTrees, Integer maxNodeSize, Kernel kernel, Metric metric, Vectors vectors,
+          Vectors quantized, int rerank, int[] ids, int[] positions, List<Tree> trees) {
+        this.numTrees = numTrees;
+        this.maxNodeSize = maxNodeSize;
+        this.deduplicate = false;
+        this.kernel = kernel;
+        this.metric = metric;
+        this.random = null;
+        this.rerank = rerank;
+        this.compactionThreshold = 0;
+        this.duplicates = Map.of();
+        this.queryCacheSize = 0;
+        this.queryCacheBytes = 0;
+        this.recordSearchStats = false;
+        this.state = new IndexState(vectors, quantized, ids, positions, trees);
+    }
+
+    /**
+     * Open an index file written with {@link #write(Path)}.
+     * The file is memory mapped and queried in place.
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static Index open(Path path) throws IOException {
+        return IndexFile.open(path);
     }
 
     /**
-     * Query the index with the given vectors and return the top k candidates.
+     * Query the index with the given vectors and return the top k candidates,
+     * merged across all vectors.
      *
      * @param vectors
      * @param k
      * @return
+     * @deprecated returns a single top k for all vectors. Use {@link #queryBatch(List, Integer)}.
      */
+    @Deprecated
     public List<Candidate> query(List<float[]> vectors, Integer k) {
         var query = new Query(this, vectors, k);
         return query.search();
     }
 
+    /**
+     * Query the index with each of the given vectors, in parallel on the common fork join pool.
+     *
+     * @param vectors
+     * @param k
+     * @return the top k candidates of each vector, in the order of vectors
+     */
+    public List<List<Candidate>> queryBatch(List<float[]> vectors, Integer k) {
+        return queryBatch(vectors, k, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Query the index with each of the given vectors, in parallel on executor.
+     * Each query runs as its own task, with thread confined state.
+     *
+     * @param vectors
+     * @param k
+     * @param executor
+     * @return the top k candidates of each vector, in the order of vectors
+     */
+    public List<List<Candidate>> queryBatch(List<float[]> vectors, Integer k, Executor executor) {
+        Objects.requireNonNull(executor, "executor must not be null");
+        var queries = vectors.stream().map(vector -> new Query(this, vector, k)).toList();
+        var futures = queries.stream()
+                .map(query -> CompletableFuture.supplyAsync(query::search, executor))
+                .toList();
+        return Futures.joinAll(futures);
+    }
+
     /**
      * Query the index with the given vector and return the top k candidates.
      *
@@ -53,8 +178,393 @@ public class Index implements Serializable {
      * @return
      */
     public List<Candidate> query(float[] vector, Integer k) {
-        var query = new Query(this, vector, k);
-        return query.search();
+        return query(vector, k, (Integer) null);
+    }
+
+    /**
+     * Query the index with the given vector and return the top k candidates,
+     * scoring searchK candidates collected across all trees.
+     * Higher values of searchK trade latency for recall. {@code numTrees * k} is a reasonable start.
+     *
+     * @param vector
+     * @param k
+     * @param searchK
+     * @return
+     */
+    public List<Candidate> query(float[] vector, Integer k, Integer searchK) {
+        return query(vector, k, searchK, QueryContext.get());
+    }
+
+    /**
+     * Query the index with the given vector and return the top k candidates,
+     * using the buffers of context.
+     * With a {@link Builder#withQueryCache(int, long) query cache}, repeated queries return the same
+     * immutable list, until the index is mutated.
+     *
+     * @param vector
+     * @param k
+     * @param searchK the number of candidates to collect across trees, or null for depth first search
+     * @param context
+     * @return
+     */
+    public List<Candidate> query(float[] vector, Integer k, Integer searchK, QueryContext context) {
+        Objects.requireNonNull(context, "context must not be null");
+        Query.checkDimension(this, vector);
+        Query.checkK(k);
+        Query.checkSearchK(searchK);
+        return search(vector, k, searchK, Query.NO_DEADLINE, context);
+    }
+
+    /**
+     * Query the index with the given vector on executor, and complete with the top k candidates.
+     * Searches never run on the common fork join pool, unless it is the executor.
+     *
+     * @param vector
+     * @param k
+     * @param executor for example a virtual thread per task executor, to isolate queries from other work
+     * @return
+     */
+    public CompletableFuture<List<Candidate>> queryAsync(float[] vector, Integer k, Executor executor) {
+        return queryAsync(vector, k, null, null, executor);
+    }
+
+    /**
+     * Query the index with the given vector on executor, and complete with the top k candidates found
+     * before a deadline. The deadline starts now, so time spent waiting for the executor counts towards it.
+     * Past the deadline, traversal stops, and the candidates collected so far are scored and returned.
+     * Partial results are never cached.
+     *
+     * @param vector
+     * @param k
+     * @param searchK  the number of candidates to collect across trees, or null for depth first search
+     * @param timeout  time allowed to collect candidates, or null for no deadline
+     * @param executor
+     * @return
+     */
+    public CompletableFuture<List<Candidate>> queryAsync(float[] vector, Integer k, Integer searchK, Duration timeout,
+                                                         Executor executor) {
+        Objects.requireNonNull(executor, "executor must not be null");
+        // The caller may reuse vector before the search runs.
+        var query = Query.checkDimension(this, vector).clone();
+        Query.checkK(k);
+        Query.checkSearchK(searchK);
+        var deadline = Query.deadline(timeout);
+        return CompletableFuture.supplyAsync(() -> {
+            // Executors may run each task on a new thread, so contexts are pooled rather than thread local.
+            var context = QueryContext.borrow();
+            try {
+                return search(query, k, searchK, deadline, context);
+            } finally {
+                QueryContext.release(context);
+            }
+        }, executor);
+    }
+
+    private List<Candidate> search(float[] vector, Integer k, Integer searchK, long deadline, QueryContext context) {
+        var cache = queryCache;
+        if (cache == null) {
+            // The query is not retained, so skip the defensive copy made by Query.
+            return Query.search(this, vector, k, searchK, deadline, context);
+        }
+        var version = cache.version();
+        var cached = cache.get(vector, k, searchK);
+        if (cached != null) {
+            context.lastStats(null);
+            return cached;
+        }
+        var result = List.copyOf(Query.search(this, vector, k, searchK, deadline, context));
+        if (!context.deadlineExceeded()) {
+            cache.put(vector, k, searchK, version, result);
+        }
+        return result;
+    }
+
+    /**
+     * The query cache, if enabled with {@link Builder#withQueryCache(int, long)}.
+     *
+     * @return
+     */
+    public Optional<QueryCache> getQueryCache() {
+        return Optional.ofNullable(queryCache);
+    }
+
+    /**
+     * Aggregate stats of the searches of this index, if enabled with {@link Builder#withSearchStats(boolean)}.
+     *
+     * @return
+     */
+    public Optional<SearchStats> getSearchStats() {
+        return Optional.ofNullable(searchStats);
+    }
+
+    /**
+     * The failure of the last automatic compaction, see {@link Builder#withCompactionThreshold(double, Executor)}.
+     * Cleared when an automatic compaction succeeds.
+     *
+     * @return
+     */
+    public Optional<Throwable> getCompactionFailure() {
+        return Optional.ofNullable(compactionFailure);
+    }
+
+    SearchStats searchStats() {
+        return searchStats;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // The cache and stats are not serialized, deserialized indexes start with empty ones.
+        queryCache = queryCacheSize > 0 ? new QueryCache(queryCacheSize, queryCacheBytes) : null;
+        searchStats = recordSearchStats ? new SearchStats() : null;
+        // Executors are not serialized, deserialized indexes compact on the common pool.
+        compactionExecutor = ForkJoinPool.commonPool();
+    }
+
+    private void invalidateQueryCache() {
+        var cache = queryCache;
+        if (cache != null) {
+            cache.invalidate();
+        }
+    }
+
+    /**
+     * Query the index with the given vector and return the ids and distances of the top k neighbors.
+     * Vectors are not copied, and can be fetched on demand with {@link Neighbors#vector(int)}.
+     *
+     * @param vector
+     * @param k
+     * @return
+     */
+    public Neighbors queryNeighbors(float[] vector, Integer k) {
+        return queryNeighbors(vector, k, null, QueryContext.get());
+    }
+
+    /**
+     * Query the index with the given vector and return the ids and distances of the top k neighbors,
+     * using the buffers of context.
+     *
+     * @param vector
+     * @param k
+     * @param searchK the number of candidates to collect across trees, or null for depth first search
+     * @param context
+     * @return
+     */
+    public Neighbors queryNeighbors(float[] vector, Integer k, Integer searchK, QueryContext context) {
+        Objects.requireNonNull(context, "context must not be null");
+        return Query.neighbors(this, Query.checkDimension(this, vector), Query.checkK(k), Query.checkSearchK(searchK),
+                context);
+    }
+
+    /**
+     * Insert a vector into the index, without rebuilding it.
+     * <p>
+     * The vector is routed down the hyperplanes of each tree into a leaf. Leaves that grow past the
+     * maximum node size are split locally. Inserts are serialized, and queries running concurrently
+     * see the index either before or after each insert. Inserted vectors are not deduplicated.
+     *
+     * @param vector
+     * @param id
+     * @throws UnsupportedOperationException if the index is memory mapped or quantized
+     * @throws IllegalArgumentException if the vector does not match the dimension of the index
+     */
+    public synchronized void add(float[] vector, Integer id) {
+        var current = state;
+        if (isMapped() || current.quantizedVectors() != null) {
+            throw new UnsupportedOperationException("Cannot insert into a memory mapped or quantized index");
+        }
+        var store = (VectorStore) current.fullVectors();
+        var position = store.add(metric.prepare(vector));
+        current.append(position, id);
+
+        for (var tree : growableTrees(current)) {
+            tree.insert(position, store, maxNodeSize, random, kernel, metric);
+        }
+        invalidateQueryCache();
+    }
+
+    /**
+     * Convert trees to {@link GrowableTree}s on the first insert.
+     */
+    private static List<GrowableTree> growableTrees(IndexState state) {
+        var trees = state.trees();
+        if (trees.stream().anyMatch(tree -> !(tree instanceof GrowableTree))) {
+            trees = trees.stream()
+                    .map(tree -> tree instanceof GrowableTree growable ? growable : new GrowableTree((FlatTree) tree))
+                    .collect(java.util.stream.Collectors.toList());
+            state.setTrees(trees);
+        }
+        return trees.stream().map(tree -> (GrowableTree) tree).toList();
+    }
+
+    /**
+     * Delete all vectors with the given id.
+     * Deleted vectors are skipped by queries immediately, and removed from memory by {@link #compact()}.
+     *
+     * @param id
+     * @return true if a vector was deleted
+     */
+    public boolean delete(Integer id) {
+        return delete(List.of(id)) > 0;
+    }
+
+    /**
+     * Delete all vectors with any of the given ids.
+     *
+     * @param ids
+     * @return the number of deleted vectors
+     */
+    public synchronized int delete(Collection<Integer> ids) {
+        var current = state;
+        var count = 0;
+        for (var id : new HashSet<>(ids)) {
+            for (var position : current.positionsOf(id)) {
+                if (current.delete(position)) {
+                    count++;
+                }
+            }
+        }
+        if (count > 0) {
+            invalidateQueryCache();
+        }
+        if (compactionThreshold > 0 && deletedFraction() >= compactionThreshold && !isMapped()) {
+            compactInBackground();
+        }
+        return count;
+    }
+
+    /**
+     * Start an automatic compaction, unless one is running. Failures are logged,
+     * and kept for {@link #getCompactionFailure()}.
+     */
+    private void compactInBackground() {
+        if (compaction != null && !compaction.isDone()) {
+            return;
+        }
+        try {
+            compactAsync(compactionExecutor).whenComplete((ignored, failure) -> {
+                compactionFailure = failure;
+                if (failure != null) {
+                    LOGGER.log(System.Logger.Level.WARNING, "Automatic compaction failed", failure);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            compactionFailure = e;
+            LOGGER.log(System.Logger.Level.WARNING, "Automatic compaction was rejected", e);
+        }
+    }
+
+    /**
+     * Fraction of indexed vectors that are deleted, but not compacted yet.
+     *
+     * @return
+     */
+    public double deletedFraction() {
+        var current = state;
+        return current.positionCount() == 0 ? 0.0 : (double) current.deletedCount() / current.positionCount();
+    }
+
+    /**
+     * Remove deleted vectors from the trees and the vector storage.
+     * <p>
+     * Leaves are rewritten without deleted positions, and live vectors are copied into new storage.
+     * Hyperplanes are kept. Queries keep running on the previous state until compaction completes.
+     * The new state is built without holding the index monitor. If vectors are inserted or deleted meanwhile,
+     * it is built again while holding it.
+     *
+     * @throws UnsupportedOperationException if the index is memory mapped
+     */
+    public void compact() {
+        if (isMapped()) {
+            throw new UnsupportedOperationException("Cannot compact a memory mapped index");
+        }
+        IndexState current;
+        int[] live;
+        int positionCount;
+        int deletedCount;
+        synchronized (this) {
+            current = state;
+            if (current.deletedCount() == 0) {
+                return;
+            }
+            live = livePositions(current);
+            positionCount = current.positionCount();
+            deletedCount = current.deletedCount();
+        }
+        var compacted = compact(current, live);
+        synchronized (this) {
+            if (state != current || current.positionCount() != positionCount
+                    || current.deletedCount() != deletedCount) {
+                // Inserted or deleted while compacting: compact again, this time holding the monitor.
+                current = state;
+                if (current.deletedCount() == 0) {
+                    return;
+                }
+                compacted = compact(current, livePositions(current));
+            }
+            state = compacted;
+            invalidateQueryCache();
+        }
+    }
+
+    private static int[] livePositions(IndexState state) {
+        var live = new int[state.positionCount() - state.deletedCount()];
+        var count = 0;
+        for (int i = 0; i < state.positionCount(); i++) {
+            var position = state.position(i);
+            if (!state.isDeleted(position)) {
+                live[count++] = position;
+            }
+        }
+        return live;
+    }
+
+    /**
+     * A new state with the live positions of current, in order. Positions that are not live,
+     * including positions inserted after live was taken, are removed from the trees.
+     */
+    private static IndexState compact(IndexState current, int[] live) {
+        var mapping = new int[Arrays.stream(live).max().orElse(-1) + 1];
+        Arrays.fill(mapping, -1);
+        var ids = new int[live.length];
+        var positions = new int[live.length];
+        for (int i = 0; i < live.length; i++) {
+            mapping[live[i]] = i;
+            ids[i] = current.id(live[i]);
+            positions[i] = i;
+        }
+        List<Tree> trees = current.trees().stream()
+                .map(tree -> tree instanceof GrowableTree growable ? growable.toFlatTree() : (FlatTree) tree)
+                .map(tree -> (Tree) tree.remap(mapping))
+                .toList();
+        return new IndexState(select(current.fullVectors(), live), select(current.quantizedVectors(), live),
+                ids, positions, trees);
+    }
+
+    /**
+     * Run {@link #compact()} on executor.
+     *
+     * @param executor
+     * @return a future completed when compaction is done
+     */
+    public synchronized CompletableFuture<Void> compactAsync(Executor executor) {
+        Objects.requireNonNull(executor, "executor must not be null");
+        if (compaction == null || compaction.isDone()) {
+            compaction = CompletableFuture.runAsync(this::compact, executor);
+        }
+        return compaction;
+    }
+
+    private static Vectors select(Vectors vectors, int[] positions) {
+        if (vectors == null) {
+            return null;
+        }
+        if (vectors instanceof VectorStore store) {
+            return store.select(positions);
+        }
+        if (vectors instanceof QuantizedVectors quantized) {
+            return quantized.select(positions);
+        }
+        return ((ProductQuantizedVectors) vectors).select(positions);
     }
 
     /**
@@ -77,38 +587,169 @@ public class Index implements Serializable {
         return IndexSerializer.serialize(this);
     }
 
+    /**
+     * Write the index to the given path in the {@link IndexFile} format,
+     * so that it can be memory mapped with {@link #open(Path)}.
+     * Deleted vectors are left out of the file, since index files do not store tombstones.
+     * The index itself is not compacted.
+     *
+     * @param path
+     * @throws IOException
+     */
+    public void write(Path path) throws IOException {
+        IndexFile.write(this, path);
+    }
+
     /**
      * Eagerly build a id of trees.
      * Trees hold an id into the unique vector list which is not
      * necessarily its id, if duplicates existed.
      * <p>
-     * Iterate from 0..numTrees and build a tree.
+     * Iterate from 0..numTrees and build a tree. Large subtrees of a tree are built in parallel as well,
+     * see {@link Plane#partition(long)}.
      */
-    private void buildIndex() {
-        var space = new Plane(vectors, vectorIds, random);
-        trees = (ArrayList<Node>) java.util.stream.IntStream.range(0, numTrees)
+    private List<Tree> buildIndex(VectorStore vectors, List<Integer> positions) {
+        var event = new IndexBuildEvent();
+        event.begin();
+        // One independent stream per tree, split in order, so that seeded builds are reproducible.
+        var streams = new SplittableRandom(random.nextLong());
+        var space = new Plane(vectors, positions.stream().mapToInt(Integer::intValue).toArray(), streams, kernel, metric);
+        var randoms = java.util.stream.Stream.generate(streams::split).limit(numTrees).toList();
+        var trees = java.util.stream.IntStream.range(0, numTrees)
                 .parallel()
-                .mapToObj(i -> space.partition(maxNodeSize))
+                .mapToObj(i -> buildTree(space, i, randoms.get(i)))
                 .collect(java.util.stream.Collectors.toList());
+        event.end();
+        if (event.shouldCommit()) {
+            event.vectors = positions.size();
+            event.dimension = vectors.dimension();
+            event.trees = numTrees;
+            event.maxNodeSize = maxNodeSize;
+            event.commit();
+        }
+        return trees;
     }
 
-    protected JVector getVector(Integer i) {
-        return vectors.get(i);
+    private Tree buildTree(Plane space, int i, SplittableRandom random) {
+        var event = new TreeBuildEvent();
+        event.begin();
+        Tree tree = space.partition(maxNodeSize, random);
+        event.end();
+        if (event.shouldCommit()) {
+            event.tree = i;
+            event.describe(tree);
+            event.commit();
+        }
+        return tree;
+    }
+
+    /**
+     * Get a copy of the vector at the given position in the store.
+     * Vectors of quantized indexes without full precision vectors are decoded.
+     */
+    protected float[] getVector(int position) {
+        return getVectors().get(position);
+    }
+
+    /**
+     * Get the id of the vector at the given position in the store.
+     */
+    protected int getId(int position) {
+        return state.id(position);
     }
 
     /**
      * Get the trees in the id.
      */
-    protected List<Node> getTrees() {
-        return trees;
+    protected List<Tree> getTrees() {
+        return state.trees();
+    }
+
+    protected boolean isMapped() {
+        var current = state;
+        return current.fullVectors() instanceof MappedVectors
+                || current.trees().stream().anyMatch(tree -> tree instanceof MappedTree);
+    }
+
+    /**
+     * Get the most precise vectors available: full precision if kept, quantized otherwise.
+     */
+    protected Vectors getVectors() {
+        return state.vectors();
+    }
+
+    /**
+     * Get the full precision vectors, or null if the index is quantized without re-ranking.
+     */
+    protected Vectors getFullVectors() {
+        return state.fullVectors();
+    }
+
+    /**
+     * Get the quantized vectors, or null if the index is not quantized.
+     */
+    protected Vectors getQuantizedVectors() {
+        return state.quantizedVectors();
+    }
+
+    /**
+     * Number of quantized candidates re-ranked with full precision vectors, per requested neighbor.
+     * Zero if re-ranking is disabled.
+     */
+    protected int rerank() {
+        return rerank;
+    }
+
+    /**
+     * The current vectors, ids and trees. Queries read a single state from start to end.
+     */
+    IndexState state() {
+        return state;
+    }
+
+    /**
+     * A copy of the current state that later inserts and deletes do not modify, for writing to a file.
+     * Deleted vectors are compacted away, ids hold exactly one id per stored vector and trees are {@link FlatTree}s.
+     */
+    synchronized IndexState snapshot() {
+        var current = state;
+        if (current.deletedCount() > 0) {
+            return compact(current, livePositions(current));
+        }
+        List<Tree> trees = current.trees().stream()
+                .map(tree -> tree instanceof GrowableTree growable ? growable.toFlatTree() : (Tree) tree)
+                .toList();
+        return new IndexState(current.fullVectors(), current.quantizedVectors(),
+                Arrays.copyOf(current.ids(), current.vectors().size()), current.positions(), trees);
     }
 
-    protected List<JVector> getVectors() {
-        return vectors;
+    /**
+     * Ids of the vectors dropped by deduplication, mapped to the id of the equal vector that was indexed instead.
+     * Empty if the index was not deduplicated, or opened from a file.
+     *
+     * @return
+     */
+    public Map<Integer, Integer> getDuplicates() {
+        return duplicates;
     }
 
+    /**
+     * Get the ids of the indexed vectors.
+     */
     protected List<Integer> getVectorIds() {
-        return vectorIds;
+        var current = state;
+        return Arrays.stream(current.positions())
+                .filter(position -> !current.isDeleted(position))
+                .mapToObj(current::id)
+                .toList();
+    }
+
+    protected int[] getIds() {
+        return state.ids();
+    }
+
+    protected int[] getPositions() {
+        return state.positions();
     }
 
     protected Integer maxNodeSIze() {
@@ -119,18 +760,40 @@ public class Index implements Serializable {
         return numTrees;
     }
 
+    protected Kernel kernel() {
+        return kernel;
+    }
+
+    /**
+     * The distance metric of the index.
+     */
+    public Metric metric() {
+        return metric;
+    }
+
     /**
      * Create a new builder.
      *
      * @return
      */
     public static class Builder {
-        private final ArrayList<Node> trees = new ArrayList<>();
         private Integer maxSize;
         private Integer numTrees;
         private boolean deduplicate = true;
-        private List<JVector> vectors = new ArrayList<>();
+        private boolean simd = false;
+        private Metric metric = Metric.EUCLIDEAN;
+        private boolean quantize = false;
+        private int subspaces = 0;
+        private int rerank = 0;
+        private double compactionThreshold = 0;
+        private Executor compactionExecutor = ForkJoinPool.commonPool();
+        private int queryCacheSize = 0;
+        private long queryCacheBytes = 0;
+        private boolean searchStats = false;
+        private VectorStore vectors;
         private List<Integer> vectorIds = new ArrayList<>();
+        private List<Integer> positions;
+        private final Map<Integer, Integer> duplicates = new LinkedHashMap<>();
         private Random random = new Random();
 
         /**
@@ -161,6 +824,9 @@ public class Index implements Serializable {
         }
 
         /**
+         * Only index the first of vectors with equal contents. Enabled by default.
+         * Dropped ids are reported by {@link Index#getDuplicates()}.
+         *
          * @param deduplicate
          * @return
          */
@@ -169,6 +835,136 @@ public class Index implements Serializable {
             return this;
         }
 
+        /**
+         * Build and query the index with the {@link Kernel#SIMD} distance kernel instead of {@link Kernel#SCALAR}.
+         * Requires the {@code jdk.incubator.vector} module to be available at runtime.
+         *
+         * @param simd
+         * @return
+         */
+        public Builder withSIMD(boolean simd) {
+            this.simd = simd;
+            return this;
+        }
+
+        /**
+         * Rank candidates by the given metric. Defaults to {@link Metric#EUCLIDEAN}.
+         * With {@link Metric#COSINE}, vectors are normalized to unit length when the index is built,
+         * and candidates carry the normalized vectors.
+         *
+         * @param metric
+         * @return
+         */
+        public Builder withMetric(Metric metric) {
+            this.metric = Objects.requireNonNull(metric, "metric must not be null");
+            return this;
+        }
+
+        /**
+         * Quantize vectors to int8 codes, with a per dimension min/max encoding.
+         * Trees are built on full precision vectors, candidates are scored on codes.
+         * Full precision vectors are dropped after the build, unless re-ranking is enabled.
+         *
+         * @param quantize
+         * @return
+         */
+        public Builder withQuantization(boolean quantize) {
+            this.quantize = quantize;
+            return this;
+        }
+
+        /**
+         * Product quantize vectors to one byte per subspace, with codebooks trained by k-means on a sample
+         * of the vectors. Candidates are scored with per query lookup tables.
+         * Full precision vectors are dropped after the build, unless re-ranking is enabled.
+         *
+         * @param subspaces number of subspaces, at most the dimension of the vectors. Zero to disable.
+         * @return
+         */
+        public Builder withProductQuantization(int subspaces) {
+            if (subspaces < 0) {
+                throw new IllegalArgumentException("subspaces must not be negative");
+            }
+            this.subspaces = subspaces;
+            return this;
+        }
+
+        /**
+         * Re-rank the {@code rerank * k} best quantized candidates of a query with full precision vectors.
+         * Only applies to quantized indexes, which then keep their full precision vectors. Write the index
+         * with {@link Index#write(Path)} and {@link Index#open(Path)} it to keep them on disk instead of the heap.
+         *
+         * @param rerank zero to disable re-ranking
+         * @return
+         */
+        public Builder withRerank(int rerank) {
+            if (rerank < 0) {
+                throw new IllegalArgumentException("rerank must not be negative");
+            }
+            this.rerank = rerank;
+            return this;
+        }
+
+        /**
+         * Compact the index on the common pool once the fraction of deleted vectors reaches threshold.
+         * Disabled by default. See {@link #withCompactionThreshold(double, Executor)}.
+         *
+         * @param threshold in (0, 1], or zero to disable
+         * @return
+         */
+        public Builder withCompactionThreshold(double threshold) {
+            return withCompactionThreshold(threshold, ForkJoinPool.commonPool());
+        }
+
+        /**
+         * Compact the index on executor once the fraction of deleted vectors reaches threshold.
+         * Failures are logged and available from {@link Index#getCompactionFailure()}. See {@link Index#compact()}.
+         *
+         * @param threshold in (0, 1], or zero to disable
+         * @param executor
+         * @return
+         */
+        public Builder withCompactionThreshold(double threshold, Executor executor) {
+            if (threshold < 0 || threshold > 1) {
+                throw new IllegalArgumentException("threshold must be in [0, 1]");
+            }
+            this.compactionThreshold = threshold;
+            this.compactionExecutor = Objects.requireNonNull(executor, "executor must not be null");
+            return this;
+        }
+
+        /**
+         * Cache the results of single queries, keyed on the exact query vector, k and searchK.
+         * Least recently used results are evicted past maxEntries results, or past maxBytes of estimated memory.
+         * The cache is cleared whenever the index is mutated. See {@link Index#getQueryCache()} for hit and miss counts.
+         *
+         * @param maxEntries zero to disable the cache
+         * @param maxBytes
+         * @return
+         */
+        public Builder withQueryCache(int maxEntries, long maxBytes) {
+            if (maxEntries < 0 || maxBytes <= 0) {
+                throw new IllegalArgumentException("maxEntries must not be negative, and maxBytes must be positive");
+            }
+            this.queryCacheSize = maxEntries;
+            this.queryCacheBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Count the work done by each search: trees, nodes, backtracks, leaves, duplicates, distance computations
+         * and the time spent in each phase. Per query stats are available from {@link QueryContext#lastStats()},
+         * aggregate histograms from {@link Index#getSearchStats()}. Disabled by default, in which case
+         * searches skip all counting and timing.
+         *
+         * @param enabled
+         * @return
+         */
+        public Builder withSearchStats(boolean enabled) {
+            this.searchStats = enabled;
+            return this;
+        }
+
         /**
          * @param vectors
          * @param ids
@@ -179,7 +975,7 @@ public class Index implements Serializable {
                 throw new IllegalArgumentException("Vectors and IDs must be the same size.");
             }
             for (float[] vector : vectors) {
-                this.vectors.add(new JVector(vector));
+                append(vector);
             }
             this.vectorIds.addAll(ids);
             return this;
@@ -190,11 +986,74 @@ public class Index implements Serializable {
          * @return
          */
         public Builder add(List<float[]> vectors) {
+            var offset = this.vectorIds.size();
             for (float[] vector : vectors) {
-                this.vectors.add(new JVector(vector));
+                append(vector);
+            }
+            for (var i = 0; i < vectors.size(); i++) {
+                this.vectorIds.add(offset + i);
+            }
+            return this;
+        }
+
+        /**
+         * Add vectors as they are iterated, with ids following the vectors added so far,
+         * like {@link #add(List)}. Each vector is copied into the index and can be discarded afterwards.
+         *
+         * @param vectors
+         * @return
+         */
+        public Builder add(Iterator<float[]> vectors) {
+            while (vectors.hasNext()) {
+                append(vectors.next());
+                this.vectorIds.add(this.vectorIds.size());
             }
-            for (var i = this.vectorIds.size(); i < vectors.size(); i++) {
-                this.vectorIds.add(i);
+            return this;
+        }
+
+        /**
+         * Add the vectors of a stream, in encounter order. See {@link #add(Iterator)}.
+         *
+         * @param vectors
+         * @return
+         */
+        public Builder add(Stream<float[]> vectors) {
+            return add(vectors.iterator());
+        }
+
+        /**
+         * Add the vectors of a .fvecs file, where each vector is a little-endian int dimension followed by
+         * that many floats. Ids follow the vectors added so far, like {@link #add(List)}.
+         *
+         * @param path
+         * @return
+         * @throws IOException
+         */
+        public Builder addFvecs(Path path) throws IOException {
+            return addFile(path, VectorFiles::readFvecs);
+        }
+
+        /**
+         * Add the rows of a two-dimensional float32 .npy file. Ids follow the vectors added so far, like {@link #add(List)}.
+         *
+         * @param path
+         * @return
+         * @throws IOException
+         */
+        public Builder addNpy(Path path) throws IOException {
+            return addFile(path, VectorFiles::readNpy);
+        }
+
+        private interface Reader {
+            VectorStore read(Path path, VectorStore store) throws IOException;
+        }
+
+        private Builder addFile(Path path, Reader reader) throws IOException {
+            var before = vectors == null ? 0 : vectors.size();
+            vectors = reader.read(path, vectors);
+            var after = vectors == null ? 0 : vectors.size();
+            for (var i = before; i < after; i++) {
+                this.vectorIds.add(this.vectorIds.size());
             }
             return this;
         }
@@ -205,7 +1064,7 @@ public class Index implements Serializable {
          * @return
          */
         public Builder add(float[] vector, Integer id) {
-            this.vectors.add(new JVector(vector));
+            append(vector);
             this.vectorIds.add(id);
             return this;
         }
@@ -219,29 +1078,65 @@ public class Index implements Serializable {
             return this;
         }
 
+        /**
+         * Set the dimension of the vectors, so that an index can be built without vectors.
+         *
+         * @param dimension
+         * @return
+         */
+        Builder withDimension(int dimension) {
+            if (vectors == null) {
+                vectors = new VectorStore(dimension);
+            } else if (vectors.dimension() != dimension) {
+                throw new IllegalArgumentException("Expected vectors of dimension " + vectors.dimension());
+            }
+            return this;
+        }
+
         /**
          * @return
          */
         public Index build() {
+            if (vectors == null) {
+                throw new IllegalStateException("Cannot build an index without vectors.");
+            }
+            if (quantize && subspaces > 0) {
+                throw new IllegalStateException("Cannot use both scalar and product quantization.");
+            }
+            metric.prepare(vectors);
             if (deduplicate) {
                 deduplicate();
+            } else {
+                positions = new ArrayList<>(vectors.size());
+                for (int i = 0; i < vectors.size(); i++) {
+                    positions.add(i);
+                }
             }
             return new Index(this);
         }
 
+        private void append(float[] vector) {
+            if (vectors == null) {
+                vectors = new VectorStore(vector.length);
+            }
+            vectors.add(vector);
+        }
+
+        /**
+         * Index the first of each group of vectors with equal contents. Duplicates stay in the store,
+         * aligned with their ids, but are left out of the trees.
+         */
         private void deduplicate() {
-            HashSet<Integer> visitedHashCodes = new HashSet<>();
-            List<Integer> dedupIds = new ArrayList<>();
-            for (int i = 0; i < vectors.size(); i++) {
-                var vector = vectors.get(i);
-                var hash = vector.hashCode();
-                if (!visitedHashCodes.contains(hash)) {
-                    visitedHashCodes.add(hash);
-                    dedupIds.add(vectorIds.get(i));
+            var survivors = vectors.survivors();
+            List<Integer> dedupPositions = new ArrayList<>();
+            for (int i = 0; i < survivors.length; i++) {
+                if (survivors[i] == i) {
+                    dedupPositions.add(i);
+                } else {
+                    duplicates.put(vectorIds.get(i), vectorIds.get(survivors[i]));
                 }
             }
-            this.vectors = Collections.unmodifiableList(this.vectors);
-            this.vectorIds = dedupIds;
+            this.positions = dedupPositions;
         }
     }
 }
\ No newline at end of file
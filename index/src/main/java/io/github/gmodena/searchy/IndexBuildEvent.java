@@ -0,0 +1,29 @@
+package io.github.gmodena.searchy;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for the build of all trees of an {@link Index}.
+ */
+@Name("io.github.gmodena.searchy.IndexBuild")
+@Label("Index Build")
+@Category("Searchy")
+@Description("Build of the trees of an index")
+@StackTrace(false)
+final class IndexBuildEvent extends jdk.jfr.Event {
+    @Label("Vectors")
+    int vectors;
+
+    @Label("Dimension")
+    int dimension;
+
+    @Label("Trees")
+    int trees;
+
+    @Label("Max Node Size")
+    int maxNodeSize;
+}
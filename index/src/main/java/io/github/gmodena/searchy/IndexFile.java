@@ -0,0 +1,393 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.FlatTree;
+import io.github.gmodena.searchy.bsp.Kernel;
+import io.github.gmodena.searchy.bsp.MappedTree;
+import io.github.gmodena.searchy.bsp.MappedVectors;
+import io.github.gmodena.searchy.bsp.Metric;
+import io.github.gmodena.searchy.bsp.ProductQuantizedVectors;
+import io.github.gmodena.searchy.bsp.QuantizedVectors;
+import io.github.gmodena.searchy.bsp.Tree;
+import io.github.gmodena.searchy.bsp.VectorStore;
+import io.github.gmodena.searchy.bsp.Vectors;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.github.gmodena.searchy.bsp.MappedVectors.FLOAT;
+import static io.github.gmodena.searchy.bsp.MappedVectors.INT;
+import static io.github.gmodena.searchy.bsp.MappedVectors.LONG;
+
+/**
+ * A versioned binary index file that can be queried in place through a memory mapping.
+ * <p>
+ * All values are little-endian. Sections start on 64 byte boundaries, and are addressed
+ * by absolute byte offsets stored in the header:
+ * <pre>
+ * header (128 bytes)
+ *   int  magic, version, dimension, kernel, size, positionCount, numTrees, maxNodeSize
+ *   long idsOffset, positionsOffset, vectorsOffset, treesOffset
+ *   int  metric, rerank               rerank is zero if not quantized or not re-ranked
+ *   long codesOffset, quantizationOffset   zero if not quantized
+ *   int  subspaces, centroids         zero unless product quantized
+ * ids          int[size]              vector id of each position
+ * positions    int[positionCount]     positions the trees were built on
+ * vectors      float[size * dimension] row-major vectors, absent (offset zero) if only quantized vectors are kept
+ * codes        byte[size * dimension]  row-major int8 codes of a quantized index, see {@link QuantizedVectors}
+ *              byte[size * subspaces]  or row-major codes of a product quantized index, see {@link ProductQuantizedVectors}
+ * quantization float[dimension] mins, float[dimension] scales
+ *              float[centroids * dimension] or the codebooks of a product quantized index
+ * trees        long[numTrees]         offset of each tree header
+ * tree header (64 bytes)
+ *   int  root, innerCount, leafCount, idCount
+ *   long leftOffset, rightOffset, planesOffset, leafOffsetsOffset, idsOffset
+ * tree sections
+ *   left, right  int[innerCount]                  child node references, see {@link Tree} and {@link FlatTree}
+ *   planes       float[innerCount * (dimension + 1)] normal followed by offset
+ *   leafOffsets  int[leafCount + 1]                 range of each leaf in ids
+ *   ids          int[idCount]                       positions held by the leaves
+ * </pre>
+ * Files are opened read-only with {@link FileChannel#map}. Vectors and trees are never copied
+ * onto the heap, so load time does not depend on the index size, and processes mapping the same
+ * file share its pages through the OS page cache. Only the id and position arrays, and the codes
+ * of quantized indexes, are read onto the heap.
+ */
+public final class IndexFile {
+    static final int MAGIC = 0x59484353; // "SCHY"
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 128;
+    private static final int TREE_HEADER_SIZE = 64;
+    private static final int ALIGNMENT = 64;
+
+    private IndexFile() {
+    }
+
+    /**
+     * Write an index to the given path. The file holds a single snapshot of the index,
+     * without the vectors deleted so far, even if the index is modified while it is written.
+     *
+     * @param index The index to write. Must have been built in memory.
+     * @param path  The file to write to. Existing files are overwritten.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void write(Index index, Path path) throws IOException {
+        if (index.isMapped()) {
+            throw new UnsupportedOperationException("Index is already backed by an index file");
+        }
+        var state = index.snapshot();
+        var vectors = (VectorStore) state.fullVectors();
+        var quantized = state.quantizedVectors();
+        var dimension = state.vectors().dimension();
+        // The store of a snapshot may still grow, ids are exact.
+        var size = state.ids().length;
+        var positions = state.positions();
+        var trees = state.trees().stream().map(tree -> (FlatTree) tree).toList();
+
+        try (var out = new Output(path)) {
+            out.skip(HEADER_SIZE);
+
+            out.align(ALIGNMENT);
+            var idsOffset = out.position();
+            out.writeInts(state.ids(), 0, size);
+
+            out.align(ALIGNMENT);
+            var positionsOffset = out.position();
+            out.writeInts(positions, 0, positions.length);
+
+            var vectorsOffset = 0L;
+            if (vectors != null) {
+                out.align(ALIGNMENT);
+                vectorsOffset = out.position();
+                out.writeFloats(vectors.data(), 0, size * dimension);
+            }
+
+            var codesOffset = 0L;
+            var quantizationOffset = 0L;
+            var subspaces = 0;
+            var centroids = 0;
+            if (quantized instanceof QuantizedVectors scalar) {
+                out.align(ALIGNMENT);
+                codesOffset = out.position();
+                out.writeBytes(scalar.codes(), 0, size * dimension);
+                out.align(ALIGNMENT);
+                quantizationOffset = out.position();
+                out.writeFloats(scalar.mins(), 0, dimension);
+                out.writeFloats(scalar.scales(), 0, dimension);
+            } else if (quantized instanceof ProductQuantizedVectors pq) {
+                subspaces = pq.subspaces();
+                centroids = pq.centroids();
+                out.align(ALIGNMENT);
+                codesOffset = out.position();
+                out.writeBytes(pq.codes(), 0, size * subspaces);
+                out.align(ALIGNMENT);
+                quantizationOffset = out.position();
+                out.writeFloats(pq.codebooks(), 0, pq.codebooks().length);
+            }
+
+            var treeOffsets = new long[trees.size()];
+            for (var i = 0; i < trees.size(); i++) {
+                out.align(ALIGNMENT);
+                treeOffsets[i] = writeTree(out, trees.get(i));
+            }
+
+            out.align(ALIGNMENT);
+            var treesOffset = out.position();
+            for (var offset : treeOffsets) {
+                out.writeLong(offset);
+            }
+
+            out.seek(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dimension);
+            out.writeInt(index.kernel().ordinal());
+            out.writeInt(size);
+            out.writeInt(positions.length);
+            out.writeInt(trees.size());
+            out.writeInt(index.maxNodeSIze());
+            out.writeLong(idsOffset);
+            out.writeLong(positionsOffset);
+            out.writeLong(vectorsOffset);
+            out.writeLong(treesOffset);
+            out.writeInt(index.metric().ordinal());
+            out.writeInt(index.rerank());
+            out.writeLong(codesOffset);
+            out.writeLong(quantizationOffset);
+            out.writeInt(subspaces);
+            out.writeInt(centroids);
+        }
+    }
+
+    /**
+     * Open an index file for querying. The file is mapped read-only and stays mapped
+     * until the returned index becomes unreachable.
+     *
+     * @param path The file to open.
+     * @return An index backed by the mapped file.
+     * @throws IOException If an I/O error occurs, or the file is not a valid index file.
+     */
+    public static Index open(Path path) throws IOException {
+        MemorySegment segment;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+        }
+        if (segment.byteSize() < HEADER_SIZE || segment.get(INT, 0) != MAGIC) {
+            throw new IOException("Not an index file: " + path);
+        }
+        var version = segment.get(INT, 4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported index file version " + version + ": " + path);
+        }
+        var dimension = segment.get(INT, 8);
+        var kernel = constant(Kernel.values(), segment.get(INT, 12), "kernel", path);
+        var size = segment.get(INT, 16);
+        var positionCount = segment.get(INT, 20);
+        var numTrees = segment.get(INT, 24);
+        var maxNodeSize = segment.get(INT, 28);
+        var idsOffset = segment.get(LONG, 32);
+        var positionsOffset = segment.get(LONG, 40);
+        var vectorsOffset = segment.get(LONG, 48);
+        var treesOffset = segment.get(LONG, 56);
+        var metric = constant(Metric.values(), segment.get(INT, 64), "metric", path);
+
+        var ids = segment.asSlice(idsOffset, (long) size * Integer.BYTES).toArray(INT);
+        var positions = segment.asSlice(positionsOffset, (long) positionCount * Integer.BYTES).toArray(INT);
+        var rerank = segment.get(INT, 68);
+        var codesOffset = segment.get(LONG, 72);
+        var quantizationOffset = segment.get(LONG, 80);
+
+        MappedVectors vectors = null;
+        if (vectorsOffset != 0) {
+            vectors = new MappedVectors(segment.asSlice(vectorsOffset, (long) size * dimension * Float.BYTES), dimension, size);
+        }
+        var subspaces = segment.get(INT, 88);
+        var centroids = segment.get(INT, 92);
+        Vectors quantized = null;
+        if (codesOffset != 0 && subspaces > 0) {
+            var codes = segment.asSlice(codesOffset, (long) size * subspaces).toArray(ValueLayout.JAVA_BYTE);
+            var codebooks = segment.asSlice(quantizationOffset, (long) centroids * dimension * Float.BYTES).toArray(FLOAT);
+            quantized = new ProductQuantizedVectors(dimension, size, subspaces, centroids, codebooks, codes);
+        } else if (codesOffset != 0) {
+            // Codes are read onto the heap, full precision vectors stay mapped.
+            var codes = segment.asSlice(codesOffset, (long) size * dimension).toArray(ValueLayout.JAVA_BYTE);
+            var parameters = segment.asSlice(quantizationOffset, 2L * dimension * Float.BYTES).toArray(FLOAT);
+            quantized = new QuantizedVectors(dimension, size, codes,
+                    Arrays.copyOfRange(parameters, 0, dimension), Arrays.copyOfRange(parameters, dimension, 2 * dimension));
+        }
+
+        List<Tree> trees = new ArrayList<>(numTrees);
+        for (var i = 0; i < numTrees; i++) {
+            var tree = segment.get(LONG, treesOffset + (long) i * Long.BYTES);
+            trees.add(new MappedTree(segment, dimension,
+                    segment.get(INT, tree),
+                    segment.get(LONG, tree + 16),
+                    segment.get(LONG, tree + 24),
+                    segment.get(LONG, tree + 32),
+                    segment.get(LONG, tree + 40),
+                    segment.get(LONG, tree + 48)));
+        }
+        return new Index(numTrees, maxNodeSize, kernel, metric, vectors, quantized, rerank, ids, positions, trees);
+    }
+
+    /**
+     * The enum constant with the given ordinal, read from the header of an index file.
+     *
+     * @throws IOException if no constant has the ordinal
+     */
+    private static <E extends Enum<E>> E constant(E[] values, int ordinal, String name, Path path) throws IOException {
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new IOException("Unknown " + name + " " + ordinal + ": " + path);
+        }
+        return values[ordinal];
+    }
+
+    private static long writeTree(Output out, FlatTree tree) throws IOException {
+        var header = out.position();
+        out.skip(TREE_HEADER_SIZE);
+
+        out.align(ALIGNMENT);
+        var left = out.position();
+        out.writeInts(tree.lefts(), 0, tree.innerCount());
+        out.align(ALIGNMENT);
+        var right = out.position();
+        out.writeInts(tree.rights(), 0, tree.innerCount());
+        out.align(ALIGNMENT);
+        var planes = out.position();
+        out.writeFloats(tree.planes(), 0, tree.planes().length);
+        out.align(ALIGNMENT);
+        var leafOffsets = out.position();
+        out.writeInts(tree.leafOffsets(), 0, tree.leafOffsets().length);
+        out.align(ALIGNMENT);
+        var ids = out.position();
+        out.writeInts(tree.ids(), 0, tree.ids().length);
+        var end = out.position();
+
+        out.seek(header);
+        out.writeInt(tree.root());
+        out.writeInt(tree.innerCount());
+        out.writeInt(tree.leafCount());
+        out.writeInt(tree.ids().length);
+        out.writeLong(left);
+        out.writeLong(right);
+        out.writeLong(planes);
+        out.writeLong(leafOffsets);
+        out.writeLong(ids);
+        out.seek(end);
+        return header;
+    }
+
+    /**
+     * Buffered, little-endian, seekable writes to a file channel.
+     */
+    private static final class Output implements Closeable {
+        private static final int BUFFER_SIZE = 1 << 20;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long position = 0;
+
+        Output(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        long position() {
+            return position;
+        }
+
+        void seek(long position) throws IOException {
+            flush();
+            channel.position(position);
+            this.position = position;
+        }
+
+        void skip(int bytes) throws IOException {
+            for (var i = 0; i < bytes; i++) {
+                ensure(1);
+                buffer.put((byte) 0);
+            }
+            position += bytes;
+        }
+
+        void align(int alignment) throws IOException {
+            var padding = (int) ((alignment - position % alignment) % alignment);
+            skip(padding);
+        }
+
+        void writeInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+            position += Integer.BYTES;
+        }
+
+        void writeLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+            position += Long.BYTES;
+        }
+
+        void writeBytes(byte[] values, int offset, int length) throws IOException {
+            var i = offset;
+            while (i < offset + length) {
+                ensure(1);
+                var count = Math.min(buffer.remaining(), offset + length - i);
+                buffer.put(values, i, count);
+                i += count;
+            }
+            position += length;
+        }
+
+        void writeInts(int[] values, int offset, int length) throws IOException {
+            for (var i = offset; i < offset + length; i++) {
+                writeInt(values[i]);
+            }
+        }
+
+        void writeFloats(float[] values, int offset, int length) throws IOException {
+            var i = offset;
+            while (i < offset + length) {
+                ensure(Float.BYTES);
+                var count = Math.min(buffer.remaining() / Float.BYTES, offset + length - i);
+                buffer.asFloatBuffer().put(values, i, count);
+                buffer.position(buffer.position() + count * Float.BYTES);
+                i += count;
+            }
+            position += (long) length * Float.BYTES;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.gmodena.searchy;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for deserializing an {@link Index} with {@link IndexSerializer}.
+ */
+@Name("io.github.gmodena.searchy.IndexLoad")
+@Label("Index Load")
+@Category("Searchy")
+@Description("Deserialization of an index from a byte array or a gzip file")
+final class IndexLoadEvent extends jdk.jfr.Event {
+    @Label("Path")
+    @Description("Source file, or null for a byte array")
+    String path;
+
+    @Label("Bytes")
+    @Description("Bytes read, compressed for files")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,25 @@
+package io.github.gmodena.searchy;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for serializing an {@link Index} with {@link IndexSerializer}.
+ */
+@Name("io.github.gmodena.searchy.IndexSave")
+@Label("Index Save")
+@Category("Searchy")
+@Description("Serialization of an index to a byte array or a gzip file")
+final class IndexSaveEvent extends jdk.jfr.Event {
+    @Label("Path")
+    @Description("Destination file, or null for a byte array")
+    String path;
+
+    @Label("Bytes")
+    @Description("Bytes written, compressed for files")
+    @DataAmount
+    long bytes;
+}
@@ -1,9 +1,15 @@
 package io.github.gmodena.searchy;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+/**
+ * Java serialization of an {@link Index}. Each call emits an {@link IndexSaveEvent} or {@link IndexLoadEvent}
+ * when recorded by the flight recorder.
+ */
 public class IndexSerializer {
     /**
      * Serialize an Index object to a byte array.
@@ -13,11 +19,15 @@ public class IndexSerializer {
      * @throws IOException
      */
     public static byte[] serialize(Index index) throws IOException {
+        var event = new IndexSaveEvent();
+        event.begin();
         try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
              ObjectOutputStream out = new ObjectOutputStream(byteOut)) {
             out.writeObject(index);
             out.close();
-            return byteOut.toByteArray();
+            var bytes = byteOut.toByteArray();
+            commit(event, null, bytes.length);
+            return bytes;
         }
     }
 
@@ -29,11 +39,14 @@ public class IndexSerializer {
      * @throws IOException If an I/O error occurs.
      */
     public static void serialize(Index index, String fileName) throws IOException {
+        var event = new IndexSaveEvent();
+        event.begin();
         try (FileOutputStream fileOut = new FileOutputStream(fileName);
              GZIPOutputStream gzipOut = new GZIPOutputStream(fileOut);
              ObjectOutputStream out = new ObjectOutputStream(gzipOut)) {
             out.writeObject(index);
         }
+        commit(event, fileName, Files.size(Path.of(fileName)));
     }
 
     /**
@@ -45,9 +58,13 @@ public class IndexSerializer {
      * @throws ClassNotFoundException If the Index class is not found.
      */
     public static Index deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        var event = new IndexLoadEvent();
+        event.begin();
         try (ByteArrayInputStream byteIn = new ByteArrayInputStream(bytes);
              ObjectInputStream in = new ObjectInputStream(byteIn)) {
-            return (Index) in.readObject();
+            var index = (Index) in.readObject();
+            commit(event, null, bytes.length);
+            return index;
         }
     }
 
@@ -60,10 +77,32 @@ public class IndexSerializer {
      * @throws ClassNotFoundException If the Index class is not found.
      */
     public static Index deserialize(String fileName) throws IOException, ClassNotFoundException {
+        var event = new IndexLoadEvent();
+        event.begin();
         try (FileInputStream fileIn = new FileInputStream(fileName);
              GZIPInputStream gzipIn = new GZIPInputStream(fileIn);
              ObjectInputStream in = new ObjectInputStream(gzipIn)) {
-            return (Index) in.readObject();
+            var index = (Index) in.readObject();
+            commit(event, fileName, fileIn.getChannel().size());
+            return index;
         }
     }
-}
\ No newline at end of file
+
+    private static void commit(IndexSaveEvent event, String path, long bytes) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    private static void commit(IndexLoadEvent event, String path, long bytes) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+}
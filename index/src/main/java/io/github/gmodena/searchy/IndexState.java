@@ -0,0 +1,197 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.Tree;
+import io.github.gmodena.searchy.bsp.Vectors;
+
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The vectors, ids, trees and tombstones of an {@link Index}.
+ * <p>
+ * A query reads a single state from start to end. Inserts and deletes modify the current state in place,
+ * and reach concurrent queries through release writes to the trees and the tombstones, and volatile writes
+ * of the grown id and position arrays. Compaction builds
+ * a new state and swaps it in, while queries that already started complete on the old one.
+ */
+final class IndexState implements Serializable {
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final Vectors vectors;
+    private final Vectors quantized;
+    // Grown by copies, and published through volatile writes to concurrent queries.
+    private volatile int[] ids;
+    private volatile int[] positions;
+    private volatile int positionCount;
+    private volatile List<Tree> trees;
+    // Bit p is set if the vector at position p is deleted.
+    private volatile long[] tombstones = new long[0];
+    private int deletedCount = 0;
+    // Indexed positions of each id. Built on the first lookup, and kept up to date by append.
+    private transient Map<Integer, int[]> positionsById;
+
+    /**
+     * @param vectors   full precision vectors, or null if only quantized vectors are kept
+     * @param quantized quantized vectors, or null
+     * @param ids       vector id of each position, possibly with spare capacity
+     * @param positions positions the trees were built on
+     * @param trees
+     */
+    IndexState(Vectors vectors, Vectors quantized, int[] ids, int[] positions, List<Tree> trees) {
+        this.vectors = vectors;
+        this.quantized = quantized;
+        this.ids = ids;
+        this.positions = positions;
+        this.positionCount = positions.length;
+        this.trees = trees;
+    }
+
+    /**
+     * The most precise vectors available: full precision if kept, quantized otherwise.
+     */
+    Vectors vectors() {
+        return vectors != null ? vectors : quantized;
+    }
+
+    /**
+     * The vectors candidates are scored against.
+     */
+    Vectors scoringVectors() {
+        return quantized != null ? quantized : vectors;
+    }
+
+    Vectors fullVectors() {
+        return vectors;
+    }
+
+    Vectors quantizedVectors() {
+        return quantized;
+    }
+
+    int id(int position) {
+        return ids[position];
+    }
+
+    int[] ids() {
+        return ids;
+    }
+
+    int[] positions() {
+        // The count is written after the positions it covers, so read it first.
+        var count = positionCount;
+        return Arrays.copyOf(positions, count);
+    }
+
+    int positionCount() {
+        return positionCount;
+    }
+
+    int position(int i) {
+        return positions[i];
+    }
+
+    List<Tree> trees() {
+        return trees;
+    }
+
+    void setTrees(List<Tree> trees) {
+        this.trees = trees;
+    }
+
+    /**
+     * Record the id of a new position, and add it to the indexed positions.
+     * Must be called before the position is published in the trees.
+     *
+     * @param position
+     * @param id
+     */
+    void append(int position, int id) {
+        if (position >= ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(position + 1, Math.max(16, ids.length + (ids.length >> 1))));
+        }
+        ids[position] = id;
+        if (positionCount == positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(16, positions.length + (positions.length >> 1)));
+        }
+        positions[positionCount] = position;
+        positionCount++;
+        if (positionsById != null) {
+            addPosition(positionsById, id, position);
+        }
+    }
+
+    /**
+     * Indexed positions of the vectors with the given id.
+     * Must be called with the same lock as {@link #append(int, int)}.
+     *
+     * @param id
+     * @return
+     */
+    int[] positionsOf(int id) {
+        if (positionsById == null) {
+            var map = new HashMap<Integer, int[]>();
+            for (int i = 0; i < positionCount; i++) {
+                addPosition(map, ids[positions[i]], positions[i]);
+            }
+            positionsById = map;
+        }
+        return positionsById.getOrDefault(id, NO_POSITIONS);
+    }
+
+    private static void addPosition(Map<Integer, int[]> positionsById, int id, int position) {
+        positionsById.merge(id, new int[]{position}, (current, added) -> {
+            var merged = Arrays.copyOf(current, current.length + 1);
+            merged[current.length] = position;
+            return merged;
+        });
+    }
+
+    /**
+     * Whether the vector at position was deleted.
+     *
+     * @param position
+     * @return
+     */
+    boolean isDeleted(int position) {
+        var words = tombstones;
+        var word = position >>> 6;
+        return word < words.length && ((long) LONGS.getAcquire(words, word) & (1L << position)) != 0;
+    }
+
+    /**
+     * Mark the vector at position as deleted.
+     *
+     * @param position
+     * @return true if the position was not deleted before
+     */
+    boolean delete(int position) {
+        var word = position >>> 6;
+        if (word >= tombstones.length) {
+            tombstones = Arrays.copyOf(tombstones, Math.max(word + 1, tombstones.length * 2));
+        }
+        var words = tombstones;
+        var current = (long) LONGS.getAcquire(words, word);
+        var bit = 1L << position;
+        if ((current & bit) != 0) {
+            return false;
+        }
+        LONGS.setRelease(words, word, current | bit);
+        deletedCount++;
+        return true;
+    }
+
+    /**
+     * Number of deleted positions.
+     *
+     * @return
+     */
+    int deletedCount() {
+        return deletedCount;
+    }
+}
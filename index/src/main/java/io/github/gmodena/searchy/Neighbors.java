@@ -0,0 +1,100 @@
+package io.github.gmodena.searchy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The ids and distances of the nearest neighbors of a query, sorted by increasing distance.
+ * <p>
+ * Unlike a list of {@link Candidate}, neighbors do not carry vectors. Ids and distances are held
+ * in primitive arrays, and a vector is only read from the index when {@link #vector(int)} is called,
+ * so large top k results cost two arrays regardless of the dimension of the index.
+ */
+public final class Neighbors {
+    private final IndexState state;
+    private final int[] positions;
+    private final int[] ids;
+    private final float[] distances;
+
+    Neighbors(IndexState state, int[] positions, float[] distances) {
+        this.state = state;
+        this.positions = positions;
+        this.distances = distances;
+        this.ids = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            ids[i] = state.id(positions[i]);
+        }
+    }
+
+    /**
+     * Number of neighbors.
+     *
+     * @return
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Id of the i-th nearest neighbor.
+     *
+     * @param i
+     * @return
+     */
+    public int id(int i) {
+        return ids[i];
+    }
+
+    /**
+     * Distance of the i-th nearest neighbor from the query.
+     *
+     * @param i
+     * @return
+     */
+    public float distance(int i) {
+        return distances[i];
+    }
+
+    /**
+     * Vector of the i-th nearest neighbor, read from the index on demand.
+     *
+     * @param i
+     * @return a copy of the vector
+     */
+    public float[] vector(int i) {
+        return state.vectors().get(positions[Objects.checkIndex(i, positions.length)]);
+    }
+
+    /**
+     * Ids of all neighbors, nearest first.
+     *
+     * @return
+     */
+    public int[] ids() {
+        return Arrays.copyOf(ids, ids.length);
+    }
+
+    /**
+     * Distances of all neighbors, nearest first.
+     *
+     * @return
+     */
+    public float[] distances() {
+        return Arrays.copyOf(distances, distances.length);
+    }
+
+    /**
+     * Fetch the vectors of all neighbors.
+     *
+     * @return the neighbors as candidates, nearest first
+     */
+    public List<Candidate> toCandidates() {
+        var candidates = new ArrayList<Candidate>(size());
+        for (int i = 0; i < size(); i++) {
+            candidates.add(new Candidate(vector(i), ids[i], distances[i]));
+        }
+        return candidates;
+    }
+}
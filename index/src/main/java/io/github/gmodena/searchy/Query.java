@@ -1,20 +1,34 @@
 package io.github.gmodena.searchy;
 
-import io.github.gmodena.searchy.bsp.JVector;
-import io.github.gmodena.searchy.bsp.Node;
+import io.github.gmodena.searchy.bsp.Kernel;
+import io.github.gmodena.searchy.bsp.Metric;
+import io.github.gmodena.searchy.bsp.ProductQuantizedVectors;
+import io.github.gmodena.searchy.bsp.Tree;
+import io.github.gmodena.searchy.bsp.Vectors;
 
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 /**
  * Query the id for the top k nearest neighbors.
+ * <p>
+ * By default each tree is searched depth first, backtracking until topK candidates are found in it.
+ * When a searchK budget is given, all trees are searched together, Annoy style: a single max-heap,
+ * keyed on the distance of the query from the hyperplanes on the path to each node, decides which
+ * node to expand next, across trees, until searchK candidates have been collected.
  */
 public class Query {
-    private final JVector[] queries;
+    /**
+     * Deadline of searches that run to completion.
+     */
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final float[][] queries;
 
     private final Integer topK;
+    private final Integer searchK;
 
-    private final ConcurrentHashMap.KeySetView<Object, Boolean> candidates;
     private final Index index;
 
     /**
@@ -25,14 +39,29 @@ public class Query {
      * @param topK  the number of nearest neighbors to return
      */
     public Query(Index index, float[] query, Integer topK) {
+        this(index, query, topK, null);
+    }
+
+    /**
+     * Query the id for the top k nearest neighbors, with a budget of searchK candidates.
+     *
+     * @param index   the id to query
+     * @param query   the query vector
+     * @param topK    the number of nearest neighbors to return
+     * @param searchK the number of candidates to collect across all trees.
+     *                Higher values increase recall and latency. If null, use depth first search.
+     */
+    public Query(Index index, float[] query, Integer topK, Integer searchK) {
         this.index = index;
-        this.queries = new JVector[]{new JVector(query)};
-        this.topK = topK;
-        this.candidates = ConcurrentHashMap.newKeySet();
+        this.queries = new float[][]{Arrays.copyOf(checkDimension(index, query), query.length)};
+        this.topK = checkK(topK);
+        this.searchK = checkSearchK(searchK);
     }
 
     /**
-     * Query the id for the top k nearest neighbors.
+     * Query the id for the top k nearest neighbors of any of the query vectors.
+     * The result is a single top k, merged across query vectors.
+     * Use {@link Index#queryBatch(List, Integer)} for a top k per query vector.
      *
      * @param index   the id to query
      * @param queries the query vectors
@@ -41,75 +70,302 @@ public class Query {
     public Query(Index index, List<float[]> queries, Integer topK) {
         this.index = index;
         this.queries = queries.stream()
-                .map(JVector::new)
-                .toArray(JVector[]::new);
-        this.topK = topK;
-        this.candidates = ConcurrentHashMap.newKeySet();
+                .map(query -> Arrays.copyOf(checkDimension(index, query), query.length))
+                .toArray(float[][]::new);
+        this.topK = checkK(topK);
+        this.searchK = null;
     }
 
     /**
      * Search the id for the top k nearest neighbors.
-     * Results are approximate.
+     * Results are approximate, and sorted by increasing distance.
+     * Uses the {@link QueryContext} of the calling thread.
      */
     public List<Candidate> search() {
-        // neighbours will contain at most topk+1 elements before polling.
-        PriorityQueue<Candidate> neighbours = new PriorityQueue<>(topK + 1, Comparator.comparingDouble(Candidate::distance).reversed());
-
-        Arrays.stream(queries).parallel().forEach(query -> {
-            index.getTrees().forEach(tree -> searchTree((Node) tree, query, topK));
-
-            candidates.stream()
-                    .map(idx -> {
-                        JVector vector = index.getVector((Integer) idx);
-                        return new Candidate(vector.raw(), (Integer) idx, vector.distance(query));
-                    })
-                    .forEach(candidate -> {
-                        synchronized (neighbours) {
-                            if (neighbours.size() < topK || candidate.distance() < neighbours.peek().distance()) {
-                                neighbours.offer(candidate);
-                                if (neighbours.size() > topK) {
-                                    neighbours.poll();
-                                }
-                            }
-                        }
-                    });
-        });
+        return search(QueryContext.get());
+    }
+
+    /**
+     * Search the id for the top k nearest neighbors, using the buffers of context.
+     * Results are approximate, and sorted by increasing distance.
+     *
+     * @param context
+     * @return
+     */
+    public List<Candidate> search(QueryContext context) {
+        if (queries.length == 1) {
+            return search(index, queries[0], topK, searchK, context);
+        }
+        // Merge the top k of each query vector, keeping the closest distance of each id.
+        Map<Integer, Candidate> merged = new HashMap<>();
+        for (var query : queries) {
+            for (var candidate : search(index, query, topK, searchK, context)) {
+                merged.merge(candidate.id(), candidate, (a, b) -> a.distance() <= b.distance() ? a : b);
+            }
+        }
+        return merged.values().stream()
+                .sorted(Comparator.comparingDouble(Candidate::distance))
+                .limit(topK)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * Search index for the top k nearest neighbors of query.
+     * All intermediate state lives in context; only the result is allocated.
+     * The caller is responsible for checking the dimension of query.
+     */
+    static List<Candidate> search(Index index, float[] query, int topK, Integer searchK, QueryContext context) {
+        return search(index, query, topK, searchK, NO_DEADLINE, context);
+    }
+
+    /**
+     * Search index for the top k nearest neighbors of query, collecting candidates until deadline,
+     * in {@link System#nanoTime()} units. Past the deadline, traversal stops and the candidates collected
+     * so far are scored; {@link QueryContext#deadlineExceeded()} tells whether the result is partial.
+     */
+    static List<Candidate> search(Index index, float[] query, int topK, Integer searchK, long deadline,
+                                  QueryContext context) {
+        var event = new QueryEvent();
+        event.begin();
+        var state = index.state();
+        var stats = index.searchStats();
+        var recorder = stats == null ? null : context.recorder();
+        var scored = score(index, state, query, topK, searchK, deadline, context, recorder);
+        var result = context.results(state, index.metric());
+        record(stats, recorder, context);
+        commit(event, topK, searchK, scored, result.size(), context.deadlineExceeded());
+        return result;
+    }
+
+    /**
+     * A deadline in {@link System#nanoTime()} units, timeout from now.
+     *
+     * @param timeout null for no deadline
+     * @return
+     */
+    static long deadline(Duration timeout) {
+        if (timeout == null) {
+            return NO_DEADLINE;
+        }
+        if (timeout.isNegative()) {
+            throw new IllegalArgumentException("timeout must not be negative");
+        }
+        try {
+            return Math.addExact(System.nanoTime(), timeout.toNanos());
+        } catch (ArithmeticException e) {
+            // Too far in the future to ever expire.
+            return NO_DEADLINE;
+        }
+    }
 
-        return new ArrayList<>(neighbours);
+    /**
+     * Search index for the ids and distances of the top k nearest neighbors of query.
+     * Vectors are not copied.
+     * The caller is responsible for checking the dimension of query.
+     */
+    static Neighbors neighbors(Index index, float[] query, int topK, Integer searchK, QueryContext context) {
+        var event = new QueryEvent();
+        event.begin();
+        var state = index.state();
+        var stats = index.searchStats();
+        var recorder = stats == null ? null : context.recorder();
+        var scored = score(index, state, query, topK, searchK, NO_DEADLINE, context, recorder);
+        var result = context.neighbors(state, index.metric());
+        record(stats, recorder, context);
+        commit(event, topK, searchK, scored, result.size(), false);
+        return result;
     }
 
-    private int searchTree(Node tree, JVector query, int n) {
-        // we reached a leaf node.
-        // Take all elements in the leaf node and add them to candidates.
-        if (tree instanceof Node.LeafNode leaf) {
-            var leafValues = leaf.getIds();
-            int numCandidatesFound = Math.min(n, leafValues.size());
+    private static void commit(QueryEvent event, int topK, Integer searchK, int scored, int results,
+                               boolean deadlineExceeded) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.k = topK;
+            event.searchK = searchK == null ? 0 : searchK;
+            event.scored = scored;
+            event.results = results;
+            event.deadlineExceeded = deadlineExceeded;
+            event.commit();
+        }
+    }
 
-            for (int i = 0; i < numCandidatesFound; i++) {
-                candidates.add(leafValues.get(i));
-            }
+    private static void record(SearchStats stats, SearchStats.Recorder recorder, QueryContext context) {
+        if (recorder == null) {
+            context.lastStats(null);
+            return;
+        }
+        var queryStats = recorder.finish();
+        context.lastStats(queryStats);
+        stats.record(queryStats);
+    }
 
-            return numCandidatesFound;
+    /**
+     * Collect candidates from the trees of state, and keep the top k closest to query in the heap of context.
+     * Deleted positions are never collected. Work is counted by recorder, unless it is null.
+     *
+     * @return the number of distance computations
+     */
+    private static int score(Index index, IndexState state, float[] query, int topK, Integer searchK, long deadline,
+                             QueryContext context, SearchStats.Recorder recorder) {
+        var metric = index.metric();
+        var kernel = index.kernel();
+        query = metric.prepare(query, context.query(query.length));
+        var rerank = index.rerank();
+        context.reset(rerank > 0 ? topK * rerank : topK);
+        context.deadline(deadline);
+        if (searchK != null) {
+            searchTrees(state, kernel, query, searchK, context, recorder);
         } else {
-            // We are at an inner node.
-            // Search recursively the left and right nodes. Backtrack if
-            // the candidates pool size is smaller than k.
-            var inner = (Node.InnerNode) tree;
-            var above = inner.vectorSpace().isAbove(query);
-            Node main;
-            Node backup;
-            if (above) {
-                main = inner.rightNode();
-                backup = inner.leftNode();
+            var trees = state.trees();
+            for (int i = 0; i < trees.size() && !context.deadlineExceeded(); i++) {
+                searchTree(state, kernel, trees.get(i), query, topK, context, recorder);
+            }
+        }
+        if (recorder != null) {
+            recorder.traversed();
+        }
+
+        var scored = context.candidateCount();
+        offer(state.scoringVectors(), metric, query, kernel, context);
+        if (rerank > 0) {
+            // Score the best quantized candidates again, with full precision vectors.
+            context.rescore(topK);
+            scored += context.candidateCount();
+            offer(state.fullVectors(), metric, query, kernel, context);
+        }
+        if (recorder != null) {
+            recorder.distances = scored;
+            recorder.scored();
+        }
+        return scored;
+    }
+
+    private static void offer(Vectors vectors, Metric metric, float[] query, Kernel kernel, QueryContext context) {
+        if (vectors instanceof ProductQuantizedVectors pq) {
+            // Asymmetric distance computation: one table per query, one lookup per subspace per candidate.
+            var table = pq.table(query, metric, kernel, context.table(pq.tableSize()));
+            for (int i = 0; i < context.candidateCount(); i++) {
+                var position = context.candidate(i);
+                context.offer(position, pq.distance(position, table, metric));
+            }
+            return;
+        }
+        for (int i = 0; i < context.candidateCount(); i++) {
+            var position = context.candidate(i);
+            context.offer(position, metric.distance(vectors, position, query, kernel));
+        }
+    }
+
+    /**
+     * Depth first search of a tree. Descend on the side of the query first,
+     * and backtrack to the other side until at least n candidates were found in this tree.
+     */
+    private static void searchTree(IndexState state, Kernel kernel, Tree tree, float[] query, int n,
+                                   QueryContext context, SearchStats.Recorder recorder) {
+        var found = 0;
+        context.push(tree.root());
+        if (recorder != null) {
+            recorder.tree();
+        }
+        while (!context.isStackEmpty() && found < n && !context.expired()) {
+            var node = context.pop();
+            if (recorder != null) {
+                recorder.node(Tree.isLeaf(node));
+            }
+            if (Tree.isLeaf(node)) {
+                // we reached a leaf node.
+                // Take all elements in the leaf node and add them to candidates.
+                var size = tree.leafSize(node);
+                for (int i = 0; i < size; i++) {
+                    var position = tree.leafId(node, i);
+                    if (!state.isDeleted(position)) {
+                        if (!context.visit(position) && recorder != null) {
+                            recorder.duplicates++;
+                        }
+                        found++;
+                    }
+                }
             } else {
-                main = inner.leftNode();
-                backup = inner.rightNode();
+                // We are at an inner node.
+                // Push the backup side first, so that it is only popped
+                // after the main side was exhausted.
+                var above = tree.margin(node, query, kernel) >= 0.0;
+                context.push(above ? tree.left(node) : tree.right(node));
+                context.push(above ? tree.right(node) : tree.left(node));
             }
-            var k = searchTree(main, query, n);
-            if (k < n) {
-                return k + searchTree(backup, query, n - k);
+        }
+        while (!context.isStackEmpty()) {
+            context.pop();
+        }
+    }
+
+    /**
+     * Expand nodes of all trees, most promising first, until searchK candidates are collected.
+     * Roots are explored first. Then, a child's priority is the margin of the query on its side of the hyperplane,
+     * capped by the priority of its parent, so that a child is never more promising than its parent.
+     */
+    private static void searchTrees(IndexState state, Kernel kernel, float[] query, int searchK, QueryContext context,
+                                    SearchStats.Recorder recorder) {
+        var trees = state.trees();
+        for (int i = 0; i < trees.size(); i++) {
+            context.pushFrontier(Float.POSITIVE_INFINITY, i, trees.get(i).root());
+        }
+
+        var found = 0;
+        while (found < searchK && !context.isFrontierEmpty() && !context.expired()) {
+            var priority = context.frontierPriority();
+            var treeIndex = context.frontierTree();
+            var node = context.frontierNode();
+            context.popFrontier();
+            var tree = trees.get(treeIndex);
+            if (recorder != null) {
+                // Only roots are pushed with an infinite priority.
+                if (priority == Float.POSITIVE_INFINITY) {
+                    recorder.tree();
+                }
+                recorder.node(Tree.isLeaf(node));
             }
-            return k;
+            if (Tree.isLeaf(node)) {
+                for (int i = 0; i < tree.leafSize(node); i++) {
+                    var position = tree.leafId(node, i);
+                    if (!state.isDeleted(position)) {
+                        if (context.visit(position)) {
+                            found++;
+                        } else if (recorder != null) {
+                            recorder.duplicates++;
+                        }
+                    }
+                }
+            } else {
+                var margin = tree.margin(node, query, kernel);
+                context.pushFrontier(Math.min(priority, margin), treeIndex, tree.right(node));
+                context.pushFrontier(Math.min(priority, -margin), treeIndex, tree.left(node));
+            }
+        }
+    }
+
+    static float[] checkDimension(Index index, float[] query) {
+        return checkDimension(index.getVectors().dimension(), query);
+    }
+
+    static float[] checkDimension(int dimension, float[] query) {
+        if (query.length != dimension) {
+            throw new IllegalArgumentException("Expected a query of dimension " + dimension + ", got " + query.length);
+        }
+        return query;
+    }
+
+    static Integer checkK(Integer k) {
+        if (k == null || k < 0) {
+            throw new IllegalArgumentException("k must not be negative");
+        }
+        return k;
+    }
+
+    static Integer checkSearchK(Integer searchK) {
+        if (searchK != null && searchK <= 0) {
+            throw new IllegalArgumentException("searchK must be positive");
         }
+        return searchK;
     }
-}
\ No newline at end of file
+}
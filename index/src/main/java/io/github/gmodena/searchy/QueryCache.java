@@ -0,0 +1,231 @@
+package io.github.gmodena.searchy;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of query results, in front of {@link Index#query(float[], Integer, Integer, QueryContext)}.
+ * <p>
+ * Results are keyed on the exact bits of the query vector, k and searchK. Entries are split across
+ * lock-striped segments, each a least recently used map bounded by its share of the maximum number of
+ * entries and of the estimated memory. Any mutation of the index increments a version and clears the cache.
+ * Results computed against an older version are never stored or served, so queries that race with a
+ * mutation cannot leave stale entries behind.
+ */
+public final class QueryCache {
+    private static final int MAX_SEGMENTS = 16;
+    // Rough object overheads, in bytes, for the memory estimate.
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int CANDIDATE_OVERHEAD = 64;
+
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile long version = 0;
+
+    /**
+     * @param maxEntries maximum number of cached results
+     * @param maxBytes   maximum estimated memory of cached queries and results
+     */
+    QueryCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("maxEntries and maxBytes must be positive");
+        }
+        var count = Integer.highestOneBit(Math.min(MAX_SEGMENTS, maxEntries));
+        this.segments = new Segment[count];
+        for (var i = 0; i < count; i++) {
+            segments[i] = new Segment((maxEntries + count - 1) / count, Math.max(1, maxBytes / count));
+        }
+    }
+
+    private static final class Key {
+        private final float[] vector;
+        private final int k;
+        private final int searchK;
+        private final int hash;
+
+        private Key(float[] vector, int k, Integer searchK) {
+            this.vector = vector;
+            this.k = k;
+            this.searchK = searchK == null ? -1 : searchK;
+            var h = Arrays.hashCode(vector);
+            h = 31 * (31 * h + k) + this.searchK;
+            this.hash = h ^ (h >>> 16);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            // Arrays.equals compares floats by their bits, so -0.0 and 0.0 are different queries.
+            return o instanceof Key key && k == key.k && searchK == key.searchK && Arrays.equals(vector, key.vector);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private record Entry(List<Candidate> result, long version, long bytes) {
+    }
+
+    private final class Segment extends LinkedHashMap<Key, Entry> {
+        private final int maxEntries;
+        private final long maxBytes;
+        private long bytes = 0;
+
+        private Segment(int maxEntries, long maxBytes) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        private void add(Key key, Entry entry) {
+            var previous = put(key, entry);
+            if (previous != null) {
+                bytes -= previous.bytes();
+            }
+            bytes += entry.bytes();
+            var eldest = entrySet().iterator();
+            while ((size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+                bytes -= eldest.next().getValue().bytes();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        private void evict(Key key) {
+            var removed = remove(key);
+            if (removed != null) {
+                bytes -= removed.bytes();
+            }
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            bytes = 0;
+        }
+    }
+
+    private Segment segment(Key key) {
+        return segments[key.hash & (segments.length - 1)];
+    }
+
+    /**
+     * Current version. Read it before computing a result, and pass it to {@link #put}.
+     *
+     * @return
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * The cached result of a query, or null.
+     *
+     * @param vector
+     * @param k
+     * @param searchK
+     * @return
+     */
+    List<Candidate> get(float[] vector, int k, Integer searchK) {
+        var key = new Key(vector, k, searchK);
+        var segment = segment(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && entry.version() != version) {
+                segment.evict(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.result();
+    }
+
+    /**
+     * Cache the result of a query, computed when the cache was at version.
+     *
+     * @param vector
+     * @param k
+     * @param searchK
+     * @param version
+     * @param result  an immutable list
+     */
+    void put(float[] vector, int k, Integer searchK, long version, List<Candidate> result) {
+        var key = new Key(vector.clone(), k, searchK);
+        var dimension = vector.length;
+        var bytes = ENTRY_OVERHEAD + (long) Float.BYTES * dimension
+                + (long) result.size() * (CANDIDATE_OVERHEAD + (long) Float.BYTES * dimension);
+        var segment = segment(key);
+        synchronized (segment) {
+            // Checked under the lock, since invalidate() clears each segment under its lock after the increment.
+            if (version == this.version) {
+                segment.add(key, new Entry(result, version, bytes));
+            }
+        }
+    }
+
+    /**
+     * Drop all entries, and ignore results computed before this call.
+     */
+    void invalidate() {
+        synchronized (this) {
+            version++;
+        }
+        for (var segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Number of cached results.
+     *
+     * @return
+     */
+    public int size() {
+        var size = 0;
+        for (var segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Estimated memory of cached queries and results, in bytes.
+     *
+     * @return
+     */
+    public long estimatedBytes() {
+        var bytes = 0L;
+        for (var segment : segments) {
+            synchronized (segment) {
+                bytes += segment.bytes;
+            }
+        }
+        return bytes;
+    }
+}
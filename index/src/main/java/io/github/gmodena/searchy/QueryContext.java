@@ -0,0 +1,479 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.Metric;
+import io.github.gmodena.searchy.bsp.Vectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reusable, primitive buffers for a {@link Query}.
+ * <p>
+ * A context holds the state of one search at a time: a set of visited candidate positions,
+ * a bounded top-k heap of (distance, position) pairs, a traversal stack, a frontier heap of
+ * (priority, tree, node) triples and a distance lookup table. Buffers grow on demand and are reset,
+ * not reallocated, between searches, so a steady-state query only allocates its result.
+ * <p>
+ * Contexts are not thread safe. {@link #get()} returns a context confined to the calling thread.
+ * Callers running many short-lived threads, such as virtual threads, should pool contexts and
+ * pass them explicitly to {@link Query#search(QueryContext)}, as asynchronous and sharded queries do.
+ */
+public final class QueryContext {
+    private static final ThreadLocal<QueryContext> CONTEXT = ThreadLocal.withInitial(QueryContext::new);
+    // Contexts of searches on executors, which may run each task on a new thread.
+    // Grows to the peak concurrency, up to MAX_POOLED contexts.
+    private static final Queue<QueryContext> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+    static final int MAX_POOLED = Math.max(64, 4 * Runtime.getRuntime().availableProcessors());
+    // Contexts whose buffers grew past this, for example after a search with a large searchK, are not pooled.
+    static final long MAX_POOLED_BYTES = 1L << 20;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Open addressing set of visited positions. Slots hold position + 1, 0 marks an empty slot.
+    private int[] visited = new int[INITIAL_CAPACITY];
+    // Slots of visited filled by the current search, so that reset only clears those.
+    // Unlike candidates, they are not overwritten by rescore.
+    private int[] visitedSlots = new int[INITIAL_CAPACITY / 2];
+    private int visitedCount = 0;
+    // Visited positions, in insertion order.
+    private int[] candidates = new int[INITIAL_CAPACITY];
+    private int candidateCount = 0;
+
+    private final TopK heap = new TopK(INITIAL_CAPACITY);
+
+    private int[] stack = new int[INITIAL_CAPACITY];
+    private int stackSize = 0;
+
+    // Max-heap on priority.
+    private float[] frontierPriorities = new float[INITIAL_CAPACITY];
+    private int[] frontierTrees = new int[INITIAL_CAPACITY];
+    private int[] frontierNodes = new int[INITIAL_CAPACITY];
+    private int frontierSize = 0;
+
+    private float[] scratch = new float[0];
+    private float[] query = new float[0];
+    private float[] table = new float[0];
+
+    // The deadline is only checked every DEADLINE_CHECK_INTERVAL expansions, to amortize System.nanoTime().
+    private static final int DEADLINE_CHECK_INTERVAL = 32;
+    private long deadline = Query.NO_DEADLINE;
+    private int expansions = 0;
+    private boolean deadlineExceeded = false;
+
+    // Only allocated once an index with search stats is queried.
+    private SearchStats.Recorder recorder;
+    private QueryStats lastStats;
+
+    /**
+     * Get the context of the calling thread.
+     *
+     * @return
+     */
+    public static QueryContext get() {
+        return CONTEXT.get();
+    }
+
+    /**
+     * Take a context from the shared pool, or create one. Give it back with {@link #release(QueryContext)}.
+     *
+     * @return
+     */
+    static QueryContext borrow() {
+        var context = POOL.poll();
+        if (context == null) {
+            return new QueryContext();
+        }
+        POOLED.decrementAndGet();
+        return context;
+    }
+
+    /**
+     * Give back a context taken with {@link #borrow()}. It is dropped if the pool is full,
+     * or if its buffers grew past {@link #MAX_POOLED_BYTES}.
+     *
+     * @param context
+     */
+    static void release(QueryContext context) {
+        if (context.retainedBytes() > MAX_POOLED_BYTES) {
+            return;
+        }
+        if (POOLED.incrementAndGet() > MAX_POOLED) {
+            POOLED.decrementAndGet();
+            return;
+        }
+        POOL.offer(context);
+    }
+
+    static int pooled() {
+        return POOLED.get();
+    }
+
+    /**
+     * Approximate size of the buffers of this context, in bytes.
+     */
+    long retainedBytes() {
+        long elements = (long) visited.length + visitedSlots.length + candidates.length + stack.length
+                + frontierPriorities.length + frontierTrees.length + frontierNodes.length
+                + scratch.length + query.length + table.length + 2L * heap.capacity();
+        return elements * Integer.BYTES;
+    }
+
+    /**
+     * The stats of the last search run with this context, if the index records {@link SearchStats}.
+     * Empty after a result served from the query cache, since no search was run.
+     *
+     * @return
+     */
+    public Optional<QueryStats> lastStats() {
+        return Optional.ofNullable(lastStats);
+    }
+
+    void lastStats(QueryStats stats) {
+        lastStats = stats;
+    }
+
+    /**
+     * The counters of the search in progress, reset.
+     *
+     * @return
+     */
+    SearchStats.Recorder recorder() {
+        if (recorder == null) {
+            recorder = new SearchStats.Recorder();
+        }
+        recorder.start();
+        return recorder;
+    }
+
+    /**
+     * Whether the last search run with this context stopped at its deadline,
+     * so that its result only holds the best candidates found before then.
+     *
+     * @return
+     */
+    public boolean deadlineExceeded() {
+        return deadlineExceeded;
+    }
+
+    /**
+     * Set the deadline of the search in progress, in {@link System#nanoTime()} units.
+     *
+     * @param deadline
+     */
+    void deadline(long deadline) {
+        this.deadline = deadline;
+        this.expansions = 0;
+        this.deadlineExceeded = false;
+    }
+
+    /**
+     * Check the deadline before a node expansion. Searches without a deadline never expire.
+     *
+     * @return true if the search must stop
+     */
+    boolean expired() {
+        if (deadline == Query.NO_DEADLINE || ++expansions % DEADLINE_CHECK_INTERVAL != 0) {
+            return deadlineExceeded;
+        }
+        if (System.nanoTime() >= deadline) {
+            deadlineExceeded = true;
+        }
+        return deadlineExceeded;
+    }
+
+    /**
+     * Reset all buffers for a new search of the top k candidates.
+     *
+     * @param k
+     */
+    void reset(int k) {
+        for (var i = 0; i < visitedCount; i++) {
+            visited[visitedSlots[i]] = 0;
+        }
+        visitedCount = 0;
+        candidateCount = 0;
+        heap.reset(k);
+        stackSize = 0;
+        frontierSize = 0;
+    }
+
+    /**
+     * Add a position to the visited set.
+     *
+     * @param position
+     * @return true if the position was not visited before
+     */
+    boolean visit(int position) {
+        if ((visitedCount + 1) * 2 > visited.length) {
+            rehash(visited.length * 2);
+        }
+        var slot = insert(visited, position);
+        if (slot < 0) {
+            return false;
+        }
+        visitedSlots[visitedCount++] = slot;
+        if (candidateCount == candidates.length) {
+            candidates = Arrays.copyOf(candidates, candidates.length * 2);
+        }
+        candidates[candidateCount++] = position;
+        return true;
+    }
+
+    int candidateCount() {
+        return candidateCount;
+    }
+
+    int candidate(int i) {
+        return candidates[i];
+    }
+
+    /**
+     * Offer a scored position to the top-k heap.
+     *
+     * @param position
+     * @param distance
+     */
+    void offer(int position, float distance) {
+        heap.offer(position, distance);
+    }
+
+    /**
+     * Materialize the top-k heap as candidates, sorted by increasing distance.
+     * Empties the heap.
+     *
+     * @param state
+     * @param metric
+     * @return
+     */
+    List<Candidate> results(IndexState state, Metric metric) {
+        var vectors = state.vectors();
+        var buffer = scratch(vectors.dimension());
+        var positions = new int[heap.size()];
+        var distances = new float[heap.size()];
+        drain(positions, distances, metric);
+        var result = new ArrayList<Candidate>(positions.length);
+        for (int i = 0; i < positions.length; i++) {
+            result.add(candidate(state, vectors, buffer, positions[i], distances[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Materialize the top-k heap as ids and distances, sorted by increasing distance.
+     * Empties the heap.
+     *
+     * @param state
+     * @param metric
+     * @return
+     */
+    Neighbors neighbors(IndexState state, Metric metric) {
+        var positions = new int[heap.size()];
+        var distances = new float[heap.size()];
+        drain(positions, distances, metric);
+        return new Neighbors(state, positions, distances);
+    }
+
+    /**
+     * Replace the candidates with the positions in the top-k heap, and empty the heap
+     * for a new search of the top k.
+     *
+     * @param k
+     */
+    void rescore(int k) {
+        candidateCount = heap.size();
+        if (candidates.length < candidateCount) {
+            candidates = new int[candidateCount];
+        }
+        for (var i = 0; i < candidateCount; i++) {
+            candidates[i] = heap.position(i);
+        }
+        heap.reset(k);
+    }
+
+    void push(int node) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[stackSize++] = node;
+    }
+
+    int pop() {
+        return stack[--stackSize];
+    }
+
+    boolean isStackEmpty() {
+        return stackSize == 0;
+    }
+
+    /**
+     * Add a node to the frontier.
+     *
+     * @param priority
+     * @param tree
+     * @param node
+     */
+    void pushFrontier(float priority, int tree, int node) {
+        if (frontierSize == frontierPriorities.length) {
+            var capacity = frontierPriorities.length * 2;
+            frontierPriorities = Arrays.copyOf(frontierPriorities, capacity);
+            frontierTrees = Arrays.copyOf(frontierTrees, capacity);
+            frontierNodes = Arrays.copyOf(frontierNodes, capacity);
+        }
+        var i = frontierSize++;
+        while (i > 0) {
+            var parent = (i - 1) >>> 1;
+            if (frontierPriorities[parent] >= priority) {
+                break;
+            }
+            moveFrontier(parent, i);
+            i = parent;
+        }
+        frontierPriorities[i] = priority;
+        frontierTrees[i] = tree;
+        frontierNodes[i] = node;
+    }
+
+    boolean isFrontierEmpty() {
+        return frontierSize == 0;
+    }
+
+    float frontierPriority() {
+        return frontierPriorities[0];
+    }
+
+    int frontierTree() {
+        return frontierTrees[0];
+    }
+
+    int frontierNode() {
+        return frontierNodes[0];
+    }
+
+    /**
+     * Remove the most promising node of the frontier.
+     */
+    void popFrontier() {
+        frontierSize--;
+        if (frontierSize == 0) {
+            return;
+        }
+        var priority = frontierPriorities[frontierSize];
+        var tree = frontierTrees[frontierSize];
+        var node = frontierNodes[frontierSize];
+        var i = 0;
+        while (true) {
+            var child = 2 * i + 1;
+            if (child >= frontierSize) {
+                break;
+            }
+            if (child + 1 < frontierSize && frontierPriorities[child + 1] > frontierPriorities[child]) {
+                child++;
+            }
+            if (frontierPriorities[child] <= priority) {
+                break;
+            }
+            moveFrontier(child, i);
+            i = child;
+        }
+        frontierPriorities[i] = priority;
+        frontierTrees[i] = tree;
+        frontierNodes[i] = node;
+    }
+
+    /**
+     * A scratch buffer of dimension floats.
+     *
+     * @param dimension
+     * @return
+     */
+    float[] scratch(int dimension) {
+        if (scratch.length != dimension) {
+            scratch = new float[dimension];
+        }
+        return scratch;
+    }
+
+    /**
+     * A buffer of dimension floats, for the query prepared by {@link Metric#prepare(float[], float[])}.
+     * Unlike {@link #scratch(int)}, it is not overwritten when results are materialized.
+     *
+     * @param dimension
+     * @return
+     */
+    float[] query(int dimension) {
+        if (query.length != dimension) {
+            query = new float[dimension];
+        }
+        return query;
+    }
+
+    /**
+     * A buffer of at least size floats, for a lookup table.
+     *
+     * @param size
+     * @return
+     */
+    float[] table(int size) {
+        if (table.length < size) {
+            table = new float[size];
+        }
+        return table;
+    }
+
+    private static Candidate candidate(IndexState state, Vectors vectors, float[] buffer, int position, float distance) {
+        // Candidate makes its own copy of buffer, so the vector is copied once.
+        vectors.get(position, buffer);
+        return new Candidate(buffer, state.id(position), distance);
+    }
+
+    private void drain(int[] positions, float[] distances, Metric metric) {
+        heap.drain(positions, distances);
+        for (var i = 0; i < distances.length; i++) {
+            distances[i] = metric.finish(distances[i]);
+        }
+    }
+
+    private void moveFrontier(int from, int to) {
+        frontierPriorities[to] = frontierPriorities[from];
+        frontierTrees[to] = frontierTrees[from];
+        frontierNodes[to] = frontierNodes[from];
+    }
+
+    private void rehash(int capacity) {
+        var previous = visited;
+        visited = new int[capacity];
+        visitedSlots = Arrays.copyOf(visitedSlots, capacity / 2);
+        for (var i = 0; i < visitedCount; i++) {
+            visitedSlots[i] = insert(visited, previous[visitedSlots[i]] - 1);
+        }
+    }
+
+    /**
+     * Insert position in an open addressing table.
+     *
+     * @return the slot of position, or -1 if it was already in the table
+     */
+    private static int insert(int[] table, int position) {
+        var mask = table.length - 1;
+        var slot = mix(position) & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == position + 1) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = position + 1;
+        return slot;
+    }
+
+    private static int mix(int value) {
+        var h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,38 @@
+package io.github.gmodena.searchy;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for a single search of an {@link Index}.
+ * Only searches slower than the threshold are recorded, 10 ms unless configured otherwise.
+ */
+@Name("io.github.gmodena.searchy.Query")
+@Label("Query")
+@Category("Searchy")
+@Description("Search of an index for the nearest neighbors of a vector")
+@Threshold("10 ms")
+@StackTrace(false)
+final class QueryEvent extends jdk.jfr.Event {
+    @Label("K")
+    int k;
+
+    @Label("Search K")
+    @Description("Candidates to collect across trees, or 0 for depth first search")
+    int searchK;
+
+    @Label("Candidates Scored")
+    @Description("Distance computations, including re-ranking")
+    int scored;
+
+    @Label("Results")
+    int results;
+
+    @Label("Deadline Exceeded")
+    @Description("Traversal stopped at the deadline, and the result holds the best candidates found so far")
+    boolean deadlineExceeded;
+}
@@ -0,0 +1,30 @@
+package io.github.gmodena.searchy;
+
+/**
+ * The work done by a single search, recorded when enabled with {@link Index.Builder#withSearchStats(boolean)}.
+ * <p>
+ * A backtrack is a node expanded right after a leaf, when the search resumes from a pending node
+ * instead of descending further. Duplicates are positions reached again, in another tree or leaf,
+ * and dropped before scoring. Distance computations include re-ranking.
+ *
+ * @param trees          trees whose root was expanded
+ * @param innerNodes     inner nodes expanded, one hyperplane margin each
+ * @param backtracks
+ * @param leaves         leaves reached
+ * @param duplicates
+ * @param distances      candidates scored
+ * @param traversalNanos time spent collecting candidates from the trees
+ * @param scoringNanos   time spent scoring, and re-ranking, candidates
+ * @param resultNanos    time spent materializing the result
+ */
+public record QueryStats(int trees, int innerNodes, int backtracks, int leaves, int duplicates, int distances,
+                         long traversalNanos, long scoringNanos, long resultNanos) {
+    /**
+     * Wall time of the search, across all phases.
+     *
+     * @return
+     */
+    public long totalNanos() {
+        return traversalNanos + scoringNanos + resultNanos;
+    }
+}
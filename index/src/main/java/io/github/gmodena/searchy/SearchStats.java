@@ -0,0 +1,270 @@
+package io.github.gmodena.searchy;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregate {@link QueryStats} of the searches of an index, as histograms.
+ * <p>
+ * Enabled with {@link Index.Builder#withSearchStats(boolean)}. Histograms have power of two buckets
+ * and are updated without locks, so percentiles are upper bounds within a factor of two.
+ * The stats of the last search run with a context are available from {@link QueryContext#lastStats()}.
+ */
+public final class SearchStats {
+    private final LongAdder queries = new LongAdder();
+    private final Histogram trees = new Histogram();
+    private final Histogram innerNodes = new Histogram();
+    private final Histogram backtracks = new Histogram();
+    private final Histogram leaves = new Histogram();
+    private final Histogram duplicates = new Histogram();
+    private final Histogram distances = new Histogram();
+    private final Histogram traversalNanos = new Histogram();
+    private final Histogram scoringNanos = new Histogram();
+    private final Histogram resultNanos = new Histogram();
+    private final Histogram totalNanos = new Histogram();
+
+    SearchStats() {
+    }
+
+    void record(QueryStats stats) {
+        queries.increment();
+        trees.record(stats.trees());
+        innerNodes.record(stats.innerNodes());
+        backtracks.record(stats.backtracks());
+        leaves.record(stats.leaves());
+        duplicates.record(stats.duplicates());
+        distances.record(stats.distances());
+        traversalNanos.record(stats.traversalNanos());
+        scoringNanos.record(stats.scoringNanos());
+        resultNanos.record(stats.resultNanos());
+        totalNanos.record(stats.totalNanos());
+    }
+
+    /**
+     * Number of recorded searches.
+     *
+     * @return
+     */
+    public long queries() {
+        return queries.sum();
+    }
+
+    public Histogram trees() {
+        return trees;
+    }
+
+    public Histogram innerNodes() {
+        return innerNodes;
+    }
+
+    public Histogram backtracks() {
+        return backtracks;
+    }
+
+    public Histogram leaves() {
+        return leaves;
+    }
+
+    public Histogram duplicates() {
+        return duplicates;
+    }
+
+    public Histogram distances() {
+        return distances;
+    }
+
+    public Histogram traversalNanos() {
+        return traversalNanos;
+    }
+
+    public Histogram scoringNanos() {
+        return scoringNanos;
+    }
+
+    public Histogram resultNanos() {
+        return resultNanos;
+    }
+
+    public Histogram totalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Clear all histograms. Searches that run concurrently may be partially recorded.
+     */
+    public void reset() {
+        queries.reset();
+        for (var histogram : new Histogram[]{trees, innerNodes, backtracks, leaves, duplicates, distances,
+                traversalNanos, scoringNanos, resultNanos, totalNanos}) {
+            histogram.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SearchStats{queries=" + queries()
+                + ", trees=" + trees
+                + ", innerNodes=" + innerNodes
+                + ", backtracks=" + backtracks
+                + ", leaves=" + leaves
+                + ", duplicates=" + duplicates
+                + ", distances=" + distances
+                + ", traversalNanos=" + traversalNanos
+                + ", scoringNanos=" + scoringNanos
+                + ", resultNanos=" + resultNanos
+                + ", totalNanos=" + totalNanos + "}";
+    }
+
+    /**
+     * A histogram of non negative values. Bucket b counts values in [2^(b-1), 2^b), bucket 0 counts zeros.
+     */
+    public static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE + 1);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram() {
+        }
+
+        void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        void reset() {
+            for (var b = 0; b < buckets.length(); b++) {
+                buckets.set(b, 0);
+            }
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long sum() {
+            return sum.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public double mean() {
+            var count = count();
+            return count == 0 ? 0.0 : (double) sum() / count;
+        }
+
+        /**
+         * An upper bound of the p-th percentile: the largest value of the bucket that holds it, capped by {@link #max()}.
+         *
+         * @param p in [0, 1]
+         * @return
+         */
+        public long percentile(double p) {
+            if (p < 0 || p > 1) {
+                throw new IllegalArgumentException("p must be in [0, 1]");
+            }
+            var counts = new long[buckets.length()];
+            var total = 0L;
+            for (var b = 0; b < counts.length; b++) {
+                counts[b] = buckets.get(b);
+                total += counts[b];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            var rank = Math.max(1, (long) Math.ceil(p * total));
+            var seen = 0L;
+            for (var b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) {
+                    var upper = b == 0 ? 0 : b == Long.SIZE ? Long.MAX_VALUE : (1L << b) - 1;
+                    return Math.min(upper, max());
+                }
+            }
+            return max();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "{count=%d, mean=%.1f, p50=%d, p99=%d, max=%d}",
+                    count(), mean(), percentile(0.5), percentile(0.99), max());
+        }
+    }
+
+    /**
+     * Mutable counters of the search in progress on a {@link QueryContext}.
+     * Only allocated, and updated, when stats are enabled.
+     */
+    static final class Recorder {
+        int trees;
+        int innerNodes;
+        int backtracks;
+        int leaves;
+        int duplicates;
+        int distances;
+        // Whether the last expanded node was a leaf, so that the next one is a backtrack.
+        private boolean afterLeaf;
+        private long start;
+        private long traversed;
+        private long scored;
+
+        void start() {
+            trees = 0;
+            innerNodes = 0;
+            backtracks = 0;
+            leaves = 0;
+            duplicates = 0;
+            distances = 0;
+            afterLeaf = false;
+            start = System.nanoTime();
+        }
+
+        /**
+         * The root of a tree is expanded.
+         */
+        void tree() {
+            trees++;
+            afterLeaf = false;
+        }
+
+        /**
+         * A node is expanded.
+         *
+         * @param leaf
+         */
+        void node(boolean leaf) {
+            if (afterLeaf) {
+                backtracks++;
+            }
+            afterLeaf = leaf;
+            if (leaf) {
+                leaves++;
+            } else {
+                innerNodes++;
+            }
+        }
+
+        void traversed() {
+            traversed = System.nanoTime();
+        }
+
+        void scored() {
+            scored = System.nanoTime();
+        }
+
+        QueryStats finish() {
+            return new QueryStats(trees, innerNodes, backtracks, leaves, duplicates, distances,
+                    traversed - start, scored - traversed, System.nanoTime() - scored);
+        }
+    }
+}
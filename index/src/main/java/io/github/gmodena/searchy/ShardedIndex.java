@@ -0,0 +1,407 @@
+package io.github.gmodena.searchy;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * An index split across independent {@link Index} shards.
+ * <p>
+ * Vectors are assigned to shards by a hash of their id, or round-robin, and shards are built in parallel.
+ * A query fans out to every shard on its own virtual thread, and the top k of each shard are merged into
+ * a single top k. All shards must use the same metric, so that their distances can be compared.
+ * <p>
+ * Each shard is written to, and opened from, its own {@link IndexFile}, so a shard can be rebuilt and
+ * swapped in with {@link #replaceShard(int, Index)} while the other shards keep serving queries.
+ * Duplicates are only removed within a shard.
+ */
+public class ShardedIndex {
+    private static final String MANIFEST = "shards.properties";
+    // Virtual threads are cheap to create, and never held by the pool, so the executor is never shut down.
+    private static final Executor SHARD_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Partitioning partitioning;
+    private final AtomicReferenceArray<Index> shards;
+    private final AtomicLong inserts;
+
+    /**
+     * How vectors are assigned to shards.
+     */
+    public enum Partitioning {
+        /**
+         * By a hash of the vector id. The shard of an id can be computed with {@link #shardOf(int)}.
+         */
+        HASH {
+            @Override
+            int shard(int id, long sequence, int shards) {
+                var h = id * 0x9E3779B9;
+                return Math.floorMod(h ^ (h >>> 16), shards);
+            }
+        },
+        /**
+         * By insertion order, which balances shards regardless of the distribution of ids.
+         */
+        ROUND_ROBIN {
+            @Override
+            int shard(int id, long sequence, int shards) {
+                return (int) Math.floorMod(sequence, (long) shards);
+            }
+        };
+
+        abstract int shard(int id, long sequence, int shards);
+    }
+
+    private ShardedIndex(Partitioning partitioning, List<Index> shards, long inserts) {
+        this.partitioning = partitioning;
+        this.shards = new AtomicReferenceArray<>(shards.toArray(new Index[0]));
+        this.inserts = new AtomicLong(inserts);
+    }
+
+    /**
+     * Open the shards written with {@link #write(Path)} to directory. Each shard file is memory mapped.
+     *
+     * @param directory
+     * @return
+     * @throws IOException
+     */
+    public static ShardedIndex open(Path directory) throws IOException {
+        var manifest = new Properties();
+        try (Reader reader = Files.newBufferedReader(directory.resolve(MANIFEST), StandardCharsets.UTF_8)) {
+            manifest.load(reader);
+        }
+        int count;
+        Partitioning partitioning;
+        try {
+            count = Integer.parseInt(manifest.getProperty("shards"));
+            partitioning = Partitioning.valueOf(manifest.getProperty("partitioning"));
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid shard manifest in " + directory, e);
+        }
+        var shards = new ArrayList<Index>(count);
+        for (var i = 0; i < count; i++) {
+            shards.add(Index.open(shardPath(directory, i)));
+        }
+        return new ShardedIndex(partitioning, shards, 0);
+    }
+
+    /**
+     * The file of a shard in a directory written with {@link #write(Path)}.
+     *
+     * @param directory
+     * @param shard
+     * @return
+     */
+    public static Path shardPath(Path directory, int shard) {
+        return directory.resolve(String.format(Locale.ROOT, "shard-%05d.idx", shard));
+    }
+
+    /**
+     * Write each shard to its own {@link IndexFile} in directory, with a manifest of the number of shards
+     * and the partitioning. Shards must have been built in memory, see {@link Index#write(Path)}.
+     *
+     * @param directory created if it does not exist
+     * @throws IOException
+     */
+    public void write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (var i = 0; i < shards.length(); i++) {
+            shards.get(i).write(shardPath(directory, i));
+        }
+        var manifest = new Properties();
+        manifest.setProperty("shards", String.valueOf(shards.length()));
+        manifest.setProperty("partitioning", partitioning.name());
+        try (Writer writer = Files.newBufferedWriter(directory.resolve(MANIFEST), StandardCharsets.UTF_8)) {
+            manifest.store(writer, null);
+        }
+    }
+
+    /**
+     * Query every shard with the given vector, and return the top k candidates across shards.
+     *
+     * @param vector
+     * @param k
+     * @return
+     */
+    public List<Candidate> query(float[] vector, Integer k) {
+        return query(vector, k, null);
+    }
+
+    /**
+     * Query every shard with the given vector, each with a budget of searchK candidates,
+     * and return the top k candidates across shards.
+     *
+     * @param vector
+     * @param k
+     * @param searchK the number of candidates to collect across the trees of each shard, or null for depth first search
+     * @return
+     */
+    public List<Candidate> query(float[] vector, Integer k, Integer searchK) {
+        if (shards.length() == 1) {
+            return shards.get(0).query(vector, k, searchK);
+        }
+        var futures = new ArrayList<CompletableFuture<List<Candidate>>>(shards.length());
+        for (var i = 0; i < shards.length(); i++) {
+            var shard = shards.get(i);
+            futures.add(CompletableFuture.supplyAsync(() -> queryShard(shard, vector, k, searchK), SHARD_EXECUTOR));
+        }
+        return merge(Futures.joinAll(futures), k);
+    }
+
+    private List<Candidate> queryShard(Index shard, float[] vector, Integer k, Integer searchK) {
+        // Short-lived virtual threads would each allocate a fresh thread local context, so contexts are pooled.
+        var context = QueryContext.borrow();
+        try {
+            return shard.query(vector, k, searchK, context);
+        } finally {
+            QueryContext.release(context);
+        }
+    }
+
+    /**
+     * K-way merge of lists sorted by increasing distance, into the k closest candidates.
+     */
+    static List<Candidate> merge(List<List<Candidate>> results, int k) {
+        // Cursors are (list, offset) pairs, ordered by the distance of the candidate at offset.
+        var cursors = new PriorityQueue<int[]>(Math.max(1, results.size()),
+                (a, b) -> Float.compare(results.get(a[0]).get(a[1]).distance(), results.get(b[0]).get(b[1]).distance()));
+        for (var i = 0; i < results.size(); i++) {
+            if (!results.get(i).isEmpty()) {
+                cursors.add(new int[]{i, 0});
+            }
+        }
+        var merged = new ArrayList<Candidate>(k);
+        while (merged.size() < k && !cursors.isEmpty()) {
+            var cursor = cursors.poll();
+            var result = results.get(cursor[0]);
+            merged.add(result.get(cursor[1]));
+            if (++cursor[1] < result.size()) {
+                cursors.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Insert a vector into its shard. See {@link Index#add(float[], Integer)}.
+     *
+     * @param vector
+     * @param id
+     */
+    public void add(float[] vector, Integer id) {
+        shards.get(partitioning.shard(id, inserts.getAndIncrement(), shards.length())).add(vector, id);
+    }
+
+    /**
+     * Delete all vectors with the given id, from its shard, or from every shard with round-robin partitioning.
+     *
+     * @param id
+     * @return true if a vector was deleted
+     */
+    public boolean delete(Integer id) {
+        if (partitioning == Partitioning.HASH) {
+            return shards.get(shardOf(id)).delete(id);
+        }
+        var deleted = false;
+        for (var i = 0; i < shards.length(); i++) {
+            deleted |= shards.get(i).delete(id);
+        }
+        return deleted;
+    }
+
+    /**
+     * The shard holding the vectors with the given id, with hash partitioning.
+     *
+     * @param id
+     * @return
+     * @throws UnsupportedOperationException with round-robin partitioning
+     */
+    public int shardOf(int id) {
+        if (partitioning != Partitioning.HASH) {
+            throw new UnsupportedOperationException("Shards of round-robin partitioned vectors depend on insertion order");
+        }
+        return partitioning.shard(id, 0, shards.length());
+    }
+
+    /**
+     * Replace a shard, for example with a rebuilt one. Queries running concurrently see either shard.
+     *
+     * @param shard
+     * @param index
+     */
+    public void replaceShard(int shard, Index index) {
+        Objects.checkIndex(shard, shards.length());
+        var current = shards.get(shard);
+        if (index.metric() != current.metric()) {
+            throw new IllegalArgumentException("Expected a shard with metric " + current.metric() + ", got " + index.metric());
+        }
+        shards.set(shard, index);
+    }
+
+    public Index getShard(int shard) {
+        return shards.get(Objects.checkIndex(shard, shards.length()));
+    }
+
+    public int shardCount() {
+        return shards.length();
+    }
+
+    public Partitioning partitioning() {
+        return partitioning;
+    }
+
+    public static class Builder {
+        private int shardCount = 1;
+        private Partitioning partitioning = Partitioning.HASH;
+        private Supplier<Index.Builder> shardBuilder;
+        private Index.Builder[] builders;
+        private long sequence = 0;
+
+        /**
+         * Number of shards. Defaults to 1. Must be set before vectors are added.
+         *
+         * @param shards
+         * @return
+         */
+        public Builder withShards(int shards) {
+            if (shards <= 0) {
+                throw new IllegalArgumentException("shards must be positive");
+            }
+            if (builders != null) {
+                throw new IllegalStateException("Cannot change the number of shards after vectors were added.");
+            }
+            this.shardCount = shards;
+            return this;
+        }
+
+        /**
+         * How vectors are assigned to shards. Defaults to {@link Partitioning#HASH}.
+         *
+         * @param partitioning
+         * @return
+         */
+        public Builder withPartitioning(Partitioning partitioning) {
+            if (builders != null) {
+                throw new IllegalStateException("Cannot change the partitioning after vectors were added.");
+            }
+            this.partitioning = Objects.requireNonNull(partitioning, "partitioning must not be null");
+            return this;
+        }
+
+        /**
+         * A new, configured builder for each shard, for example
+         * {@code () -> new Index.Builder().withNumTrees(8).withMaxNodeSize(64)}.
+         * Vectors are added to it by this builder. Must be set before vectors are added.
+         *
+         * @param shardBuilder
+         * @return
+         */
+        public Builder withShardBuilder(Supplier<Index.Builder> shardBuilder) {
+            if (builders != null) {
+                throw new IllegalStateException("Cannot change the shard builder after vectors were added.");
+            }
+            this.shardBuilder = Objects.requireNonNull(shardBuilder, "shardBuilder must not be null");
+            return this;
+        }
+
+        /**
+         * @param vectors
+         * @param ids
+         * @return
+         */
+        public Builder add(List<float[]> vectors, List<Integer> ids) {
+            if (vectors.size() != ids.size()) {
+                throw new IllegalArgumentException("Vectors and IDs must be the same size.");
+            }
+            for (var i = 0; i < vectors.size(); i++) {
+                add(vectors.get(i), ids.get(i));
+            }
+            return this;
+        }
+
+        /**
+         * Add vectors with ids following the vectors added so far.
+         *
+         * @param vectors
+         * @return
+         */
+        public Builder add(List<float[]> vectors) {
+            return add(vectors.iterator());
+        }
+
+        /**
+         * Add vectors as they are iterated, with ids following the vectors added so far.
+         *
+         * @param vectors
+         * @return
+         */
+        public Builder add(Iterator<float[]> vectors) {
+            while (vectors.hasNext()) {
+                add(vectors.next(), (int) sequence);
+            }
+            return this;
+        }
+
+        /**
+         * @param vector
+         * @param id
+         * @return
+         */
+        public Builder add(float[] vector, Integer id) {
+            if (builders == null) {
+                if (shardBuilder == null) {
+                    throw new IllegalStateException("Set a shard builder before adding vectors.");
+                }
+                builders = new Index.Builder[shardCount];
+                for (var i = 0; i < shardCount; i++) {
+                    // Shards that get no vectors are built empty, with the dimension of the others.
+                    builders[i] = shardBuilder.get().withDimension(vector.length);
+                }
+            }
+            builders[partitioning.shard(id, sequence++, shardCount)].add(vector, id);
+            return this;
+        }
+
+        /**
+         * Build all shards in parallel.
+         *
+         * @return
+         */
+        public ShardedIndex build() {
+            if (builders == null) {
+                throw new IllegalStateException("Cannot build an index without vectors.");
+            }
+            var shards = IntStream.range(0, shardCount)
+                    .parallel()
+                    .mapToObj(i -> {
+                        try {
+                            return builders[i].build();
+                        } catch (IllegalStateException e) {
+                            throw new IllegalStateException("Cannot build shard " + i + ": " + e.getMessage(), e);
+                        }
+                    })
+                    .toList();
+            var metric = shards.get(0).metric();
+            if (shards.stream().anyMatch(shard -> shard.metric() != metric)) {
+                throw new IllegalStateException("All shards must use the same metric.");
+            }
+            return new ShardedIndex(partitioning, shards, sequence);
+        }
+    }
+}
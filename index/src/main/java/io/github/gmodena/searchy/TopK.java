@@ -0,0 +1,134 @@
+package io.github.gmodena.searchy;
+
+/**
+ * A bounded max-heap of the k smallest distances offered so far, with their positions.
+ * Backed by parallel primitive arrays, so that offers do not allocate, and reused across
+ * searches with {@link #reset(int)}.
+ */
+final class TopK {
+    private int k;
+    private int[] positions;
+    private float[] distances;
+    private int size = 0;
+
+    /**
+     * @param k
+     */
+    TopK(int k) {
+        this.k = k;
+        this.positions = new int[k];
+        this.distances = new float[k];
+    }
+
+    /**
+     * Empty the heap for a new search of the k smallest distances.
+     *
+     * @param k
+     */
+    void reset(int k) {
+        this.k = k;
+        this.size = 0;
+        if (positions.length < k) {
+            positions = new int[k];
+            distances = new float[k];
+        }
+    }
+
+    /**
+     * Keep position if its distance is among the k smallest so far.
+     *
+     * @param position
+     * @param distance
+     */
+    void offer(int position, float distance) {
+        if (size < k) {
+            var i = size++;
+            // sift up
+            while (i > 0) {
+                var parent = (i - 1) >>> 1;
+                if (distances[parent] >= distance) {
+                    break;
+                }
+                distances[i] = distances[parent];
+                positions[i] = positions[parent];
+                i = parent;
+            }
+            distances[i] = distance;
+            positions[i] = position;
+        } else if (k > 0 && distance < distances[0]) {
+            siftDown(position, distance);
+        }
+    }
+
+    /**
+     * Offer all elements of another heap.
+     *
+     * @param other
+     */
+    void merge(TopK other) {
+        for (var i = 0; i < other.size; i++) {
+            offer(other.positions[i], other.distances[i]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Number of elements the heap holds without growing.
+     *
+     * @return
+     */
+    int capacity() {
+        return positions.length;
+    }
+
+    /**
+     * Position of the i-th element, in heap order.
+     *
+     * @param i
+     * @return
+     */
+    int position(int i) {
+        return positions[i];
+    }
+
+    /**
+     * Move the heap into positions and distances, sorted by increasing distance. Empties the heap.
+     *
+     * @param positions  at least {@link #size()} elements
+     * @param distances  at least {@link #size()} elements
+     */
+    void drain(int[] positions, float[] distances) {
+        while (size > 0) {
+            positions[size - 1] = this.positions[0];
+            distances[size - 1] = this.distances[0];
+            size--;
+            if (size > 0) {
+                siftDown(this.positions[size], this.distances[size]);
+            }
+        }
+    }
+
+    private void siftDown(int position, float distance) {
+        var i = 0;
+        while (true) {
+            var child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && distances[child + 1] > distances[child]) {
+                child++;
+            }
+            if (distances[child] <= distance) {
+                break;
+            }
+            distances[i] = distances[child];
+            positions[i] = positions[child];
+            i = child;
+        }
+        distances[i] = distance;
+        positions[i] = position;
+    }
+}
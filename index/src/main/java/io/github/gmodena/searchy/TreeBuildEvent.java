@@ -0,0 +1,56 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.Tree;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.ArrayDeque;
+
+/**
+ * Flight recorder event for the build of a single tree of an {@link Index}.
+ */
+@Name("io.github.gmodena.searchy.TreeBuild")
+@Label("Tree Build")
+@Category("Searchy")
+@Description("Build of one tree of an index")
+@StackTrace(false)
+final class TreeBuildEvent extends jdk.jfr.Event {
+    @Label("Tree")
+    @Description("Index of the tree in the index")
+    int tree;
+
+    @Label("Depth")
+    @Description("Number of inner nodes on the longest path from the root to a leaf")
+    int depth;
+
+    @Label("Leaves")
+    int leaves;
+
+    @Label("Inner Nodes")
+    int innerNodes;
+
+    /**
+     * Set the shape of tree. Walks the whole tree, so only call it once the event is known to be committed.
+     *
+     * @param tree
+     */
+    void describe(Tree tree) {
+        var nodes = new ArrayDeque<int[]>();
+        nodes.push(new int[]{tree.root(), 0});
+        while (!nodes.isEmpty()) {
+            var entry = nodes.pop();
+            var node = entry[0];
+            if (Tree.isLeaf(node)) {
+                leaves++;
+                depth = Math.max(depth, entry[1]);
+            } else {
+                innerNodes++;
+                nodes.push(new int[]{tree.left(node), entry[1] + 1});
+                nodes.push(new int[]{tree.right(node), entry[1] + 1});
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.VectorStore;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+/**
+ * Readers for vector datasets in standard file formats. Vectors are streamed from disk straight
+ * into a {@link VectorStore}, one record at a time.
+ * <ul>
+ *   <li>{@code .fvecs}: each vector is a little-endian int dimension, followed by that many floats.</li>
+ *   <li>{@code .npy}: a NumPy array of shape {@code (size, dimension)}, with {@code float32} values in C order.</li>
+ * </ul>
+ */
+public final class VectorFiles {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] NPY_MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y'};
+    private static final Pattern NPY_DESCR = Pattern.compile("'descr'\\s*:\\s*'([<>|=])f4'");
+    private static final Pattern NPY_FORTRAN = Pattern.compile("'fortran_order'\\s*:\\s*(True|False)");
+    private static final Pattern NPY_SHAPE = Pattern.compile("'shape'\\s*:\\s*\\(\\s*(\\d+)\\s*,\\s*(\\d+)\\s*,?\\s*\\)");
+
+    private VectorFiles() {
+    }
+
+    /**
+     * Read the vectors of a .fvecs file.
+     *
+     * @param path
+     * @return
+     * @throws IOException if the file is empty or truncated
+     */
+    public static VectorStore readFvecs(Path path) throws IOException {
+        var store = readFvecs(path, null);
+        if (store == null) {
+            throw new IOException("No vectors in " + path);
+        }
+        return store;
+    }
+
+    /**
+     * Read the rows of a two-dimensional float32 .npy file.
+     *
+     * @param path
+     * @return
+     * @throws IOException if the file is not a C order, two-dimensional float32 array
+     */
+    public static VectorStore readNpy(Path path) throws IOException {
+        return readNpy(path, null);
+    }
+
+    /**
+     * Append the vectors of a .fvecs file to store.
+     *
+     * @param path
+     * @param store the store to append to, or null to create one with the dimension of the file
+     * @return store, or the created store
+     * @throws IOException if the file is truncated, or its dimension does not match store
+     */
+    static VectorStore readFvecs(Path path, VectorStore store) throws IOException {
+        var length = Files.size(path);
+        try (var in = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)) {
+            if (length == 0) {
+                return store;
+            }
+            in.mark(Integer.BYTES);
+            var dimension = ByteBuffer.wrap(readFully(in, new byte[Integer.BYTES])).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            in.reset();
+            if (dimension <= 0) {
+                throw new IOException("Invalid dimension " + dimension + " in " + path);
+            }
+            var recordSize = Integer.BYTES + (long) dimension * Float.BYTES;
+            if (length % recordSize != 0) {
+                throw new IOException("Truncated .fvecs file " + path);
+            }
+            var size = length / recordSize;
+            store = reserve(store, dimension, size, path);
+
+            var record = new byte[(int) recordSize];
+            var header = ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN);
+            var values = header.slice(Integer.BYTES, dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            var vector = new float[dimension];
+            for (var i = 0L; i < size; i++) {
+                readFully(in, record, 0, record.length);
+                if (header.getInt(0) != dimension) {
+                    throw new IOException("Vector " + i + " of " + path + " has dimension " + header.getInt(0)
+                            + ", expected " + dimension);
+                }
+                values.get(0, vector);
+                store.add(vector);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Append the rows of a two-dimensional float32 .npy file to store.
+     *
+     * @param path
+     * @param store the store to append to, or null to create one with the dimension of the file
+     * @return store, or the created store
+     * @throws IOException if the file is not a C order, two-dimensional float32 array, or its dimension does not match store
+     */
+    static VectorStore readNpy(Path path, VectorStore store) throws IOException {
+        try (var in = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)) {
+            var preamble = readFully(in, new byte[NPY_MAGIC.length + 2]);
+            for (var i = 0; i < NPY_MAGIC.length; i++) {
+                if (preamble[i] != NPY_MAGIC[i]) {
+                    throw new IOException("Not a .npy file: " + path);
+                }
+            }
+            var major = preamble[NPY_MAGIC.length];
+            var headerLength = major == 1
+                    ? ByteBuffer.wrap(readFully(in, new byte[Short.BYTES])).order(ByteOrder.LITTLE_ENDIAN).getShort() & 0xFFFF
+                    : ByteBuffer.wrap(readFully(in, new byte[Integer.BYTES])).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            var charset = major >= 3 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+            var header = new String(readFully(in, new byte[headerLength]), charset);
+
+            var descr = NPY_DESCR.matcher(header);
+            var fortran = NPY_FORTRAN.matcher(header);
+            var shape = NPY_SHAPE.matcher(header);
+            if (!descr.find() || !shape.find()) {
+                throw new IOException("Expected a two-dimensional float32 array in " + path + ", got " + header.trim());
+            }
+            if (fortran.find() && fortran.group(1).equals("True")) {
+                throw new IOException("Fortran order arrays are not supported: " + path);
+            }
+            var order = descr.group(1).equals(">") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            var size = Long.parseLong(shape.group(1));
+            var dimension = Integer.parseInt(shape.group(2));
+            if (dimension <= 0) {
+                throw new IOException("Invalid dimension " + dimension + " in " + path);
+            }
+            store = reserve(store, dimension, size, path);
+
+            var row = new byte[dimension * Float.BYTES];
+            var buffer = ByteBuffer.wrap(row).order(order).asFloatBuffer();
+            var vector = new float[dimension];
+            for (var i = 0L; i < size; i++) {
+                readFully(in, row, 0, row.length);
+                buffer.get(0, vector);
+                store.add(vector);
+            }
+        }
+        return store;
+    }
+
+    private static VectorStore reserve(VectorStore store, int dimension, long size, Path path) throws IOException {
+        if (store != null && store.dimension() != dimension) {
+            throw new IOException("Vectors of " + path + " have dimension " + dimension + ", expected " + store.dimension());
+        }
+        if (store == null) {
+            return new VectorStore(dimension, Math.toIntExact(size));
+        }
+        store.reserve(Math.toIntExact(store.size() + size));
+        return store;
+    }
+
+    private static byte[] readFully(InputStream in, byte[] bytes) throws IOException {
+        return readFully(in, bytes, 0, bytes.length);
+    }
+
+    private static byte[] readFully(InputStream in, byte[] bytes, int offset, int length) throws IOException {
+        if (in.readNBytes(bytes, offset, length) != length) {
+            throw new EOFException("Unexpected end of vector file");
+        }
+        return bytes;
+    }
+}
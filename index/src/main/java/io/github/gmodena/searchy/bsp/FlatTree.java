@@ -0,0 +1,261 @@
+package io.github.gmodena.searchy.bsp;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A {@link Tree} encoded in primitive arrays.
+ * <p>
+ * Inner node i has children {@code left[i]} and {@code right[i]}, and a hyperplane stored
+ * in {@code planes} at {@code i * (dimension + 1)}: dimension normal coefficients followed by the offset.
+ * Leaf l holds {@code ids[leafOffsets[l]]} up to, excluding, {@code ids[leafOffsets[l + 1]]}.
+ * <p>
+ * Accessors return the backing arrays by reference.
+ */
+public final class FlatTree implements Tree, Serializable {
+    private final int dimension;
+    private final int root;
+    private final int[] left;
+    private final int[] right;
+    private final float[] planes;
+    private final int[] leafOffsets;
+    private final int[] ids;
+
+    /**
+     * Create a tree from its encoding.
+     *
+     * @param dimension
+     * @param root
+     * @param left
+     * @param right
+     * @param planes
+     * @param leafOffsets
+     * @param ids
+     */
+    public FlatTree(int dimension, int root, int[] left, int[] right, float[] planes, int[] leafOffsets, int[] ids) {
+        if (left.length != right.length || planes.length != left.length * (dimension + 1)) {
+            throw new IllegalArgumentException("left, right and planes must describe the same inner nodes");
+        }
+        this.dimension = dimension;
+        this.root = root;
+        this.left = left;
+        this.right = right;
+        this.planes = planes;
+        this.leafOffsets = leafOffsets;
+        this.ids = ids;
+    }
+
+    @Override
+    public int root() {
+        return root;
+    }
+
+    @Override
+    public int left(int node) {
+        return left[node];
+    }
+
+    @Override
+    public int right(int node) {
+        return right[node];
+    }
+
+    @Override
+    public float margin(int node, float[] vector, Kernel kernel) {
+        var plane = node * (dimension + 1);
+        return kernel.dot(planes, plane, vector, 0, dimension) + planes[plane + dimension];
+    }
+
+    @Override
+    public int leafSize(int node) {
+        return leafOffsets[~node + 1] - leafOffsets[~node];
+    }
+
+    @Override
+    public int leafId(int node, int i) {
+        return ids[leafOffsets[~node] + i];
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Number of inner nodes.
+     *
+     * @return
+     */
+    public int innerCount() {
+        return left.length;
+    }
+
+    /**
+     * Number of leaves.
+     *
+     * @return
+     */
+    public int leafCount() {
+        return leafOffsets.length - 1;
+    }
+
+    public int[] lefts() {
+        return left;
+    }
+
+    public int[] rights() {
+        return right;
+    }
+
+    public float[] planes() {
+        return planes;
+    }
+
+    public int[] leafOffsets() {
+        return leafOffsets;
+    }
+
+    public int[] ids() {
+        return ids;
+    }
+
+    /**
+     * A copy of this tree with every leaf id replaced by {@code mapping[id]}. Ids mapped to a negative
+     * value, or past the end of mapping, are removed from their leaf. Inner nodes are shared with this tree.
+     *
+     * @param mapping
+     * @return
+     */
+    public FlatTree remap(int[] mapping) {
+        var offsets = new int[leafOffsets.length];
+        var remapped = new int[ids.length];
+        var count = 0;
+        for (var l = 0; l < leafCount(); l++) {
+            offsets[l] = count;
+            for (var i = leafOffsets[l]; i < leafOffsets[l + 1]; i++) {
+                var id = ids[i] < mapping.length ? mapping[ids[i]] : -1;
+                if (id >= 0) {
+                    remapped[count++] = id;
+                }
+            }
+        }
+        offsets[leafCount()] = count;
+        return new FlatTree(dimension, root, left, right, planes, offsets, Arrays.copyOf(remapped, count));
+    }
+
+    /**
+     * Shift a node reference of a tree whose nodes are appended after innerBase inner nodes and leafBase leaves.
+     */
+    static int relocate(int node, int innerBase, int leafBase) {
+        return Tree.isLeaf(node) ? ~(~node + leafBase) : node + innerBase;
+    }
+
+    /**
+     * Incrementally encode a tree. Node references returned by {@link #addInner} and {@link #addLeaf}
+     * follow the {@link Tree} convention.
+     */
+    public static final class Builder {
+        private final int dimension;
+        private int[] left = new int[16];
+        private int[] right = new int[16];
+        private float[] planes;
+        private int innerCount = 0;
+        private int[] leafOffsets = new int[17];
+        private int leafCount = 0;
+        private int[] ids = new int[16];
+
+        /**
+         * @param dimension
+         */
+        public Builder(int dimension) {
+            this.dimension = dimension;
+            this.planes = new float[16 * (dimension + 1)];
+        }
+
+        /**
+         * Add an inner node with the given hyperplane. Children are set with {@link #setChildren}.
+         *
+         * @param normal
+         * @param offset
+         * @return the inner node reference
+         */
+        public int addInner(float[] normal, float offset) {
+            if (innerCount == left.length) {
+                left = Arrays.copyOf(left, left.length * 2);
+                right = Arrays.copyOf(right, right.length * 2);
+                planes = Arrays.copyOf(planes, left.length * (dimension + 1));
+            }
+            var plane = innerCount * (dimension + 1);
+            System.arraycopy(normal, 0, planes, plane, dimension);
+            planes[plane + dimension] = offset;
+            return innerCount++;
+        }
+
+        /**
+         * @param node
+         * @param left  child below the hyperplane
+         * @param right child above the hyperplane
+         */
+        public void setChildren(int node, int left, int right) {
+            this.left[node] = left;
+            this.right[node] = right;
+        }
+
+        /**
+         * Add a leaf holding ids[from] up to, excluding, ids[to].
+         *
+         * @param ids
+         * @param from
+         * @param to
+         * @return the leaf node reference
+         */
+        public int addLeaf(int[] ids, int from, int to) {
+            var start = leafOffsets[leafCount];
+            var end = start + (to - from);
+            if (end > this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, Math.max(end, this.ids.length * 2));
+            }
+            System.arraycopy(ids, from, this.ids, start, to - from);
+            if (leafCount + 2 > leafOffsets.length) {
+                leafOffsets = Arrays.copyOf(leafOffsets, leafOffsets.length * 2);
+            }
+            leafOffsets[leafCount + 1] = end;
+            return ~(leafCount++);
+        }
+
+        /**
+         * Append all nodes of a tree.
+         *
+         * @param tree
+         * @return the reference of the root of tree in this builder
+         */
+        public int addTree(FlatTree tree) {
+            var innerBase = innerCount;
+            var leafBase = leafCount;
+            var offsets = tree.leafOffsets();
+            for (var l = 0; l < tree.leafCount(); l++) {
+                addLeaf(tree.ids(), offsets[l], offsets[l + 1]);
+            }
+            var planes = tree.planes();
+            for (var i = 0; i < tree.innerCount(); i++) {
+                var plane = i * (dimension + 1);
+                var node = addInner(Arrays.copyOfRange(planes, plane, plane + dimension), planes[plane + dimension]);
+                setChildren(node, relocate(tree.lefts()[i], innerBase, leafBase),
+                        relocate(tree.rights()[i], innerBase, leafBase));
+            }
+            return relocate(tree.root(), innerBase, leafBase);
+        }
+
+        /**
+         * @param root
+         * @return
+         */
+        public FlatTree build(int root) {
+            return new FlatTree(dimension, root,
+                    Arrays.copyOf(left, innerCount),
+                    Arrays.copyOf(right, innerCount),
+                    Arrays.copyOf(planes, innerCount * (dimension + 1)),
+                    Arrays.copyOf(leafOffsets, leafCount + 1),
+                    Arrays.copyOf(ids, leafOffsets[leafCount]));
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package io.github.gmodena.searchy.bsp;
+
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * A {@link Tree} that accepts inserts while it is being searched.
+ * <p>
+ * Inner nodes use the {@link FlatTree} encoding, in arrays with spare capacity. Each leaf is its own
+ * array with spare capacity, and a size. A leaf that grows past the maximum size is split with {@link Plane}:
+ * the first leaf of the resulting subtree takes the slot of the split leaf, and the rest of the subtree
+ * is appended to the node arrays. Large leaves that cannot be split, for example of identical vectors,
+ * keep growing in place, and are only split again once they doubled in size.
+ * <p>
+ * A single writer, serialized by {@link #insert}, writes positions past the size of a leaf or nodes past
+ * those reachable by readers, and then publishes them with release writes of a leaf size, a child reference
+ * or the root. Readers load those with acquire semantics, so they see either the tree before an insert,
+ * or after it, without locking. The exception is the slot of a split leaf, which is rewritten after the
+ * subtree is linked: readers that are scanning it meanwhile may see positions of both the old and the new leaf.
+ * Arrays that run out of capacity are copied and published through a volatile field.
+ */
+public final class GrowableTree implements Tree, Serializable {
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle LEAVES = MethodHandles.arrayElementVarHandle(int[][].class);
+
+    private final int dimension;
+    private volatile int root;
+    private volatile Nodes nodes;
+    // Only accessed by the writer.
+    private int innerCount;
+    private int leafCount;
+    // Size of each leaf when it last could not be split, see unsplitSize.
+    private int[] unsplitSizes;
+
+    private static final class Nodes implements Serializable {
+        private final int[] left;
+        private final int[] right;
+        private final float[] planes;
+        private final int[][] leaves;
+        private final int[] sizes;
+
+        private Nodes(int[] left, int[] right, float[] planes, int[][] leaves, int[] sizes) {
+            this.left = left;
+            this.right = right;
+            this.planes = planes;
+            this.leaves = leaves;
+            this.sizes = sizes;
+        }
+    }
+
+    /**
+     * Copy a tree into a growable tree.
+     *
+     * @param tree
+     */
+    public GrowableTree(FlatTree tree) {
+        this.dimension = tree.dimension();
+        this.innerCount = tree.innerCount();
+        this.leafCount = tree.leafCount();
+        var offsets = tree.leafOffsets();
+        var leaves = new int[Math.max(1, leafCount)][];
+        var sizes = new int[leaves.length];
+        for (var l = 0; l < leafCount; l++) {
+            leaves[l] = Arrays.copyOfRange(tree.ids(), offsets[l], offsets[l + 1]);
+            sizes[l] = leaves[l].length;
+        }
+        this.unsplitSizes = new int[leaves.length];
+        var capacity = Math.max(1, innerCount);
+        this.nodes = new Nodes(
+                Arrays.copyOf(tree.lefts(), capacity),
+                Arrays.copyOf(tree.rights(), capacity),
+                Arrays.copyOf(tree.planes(), capacity * (dimension + 1)),
+                leaves,
+                sizes);
+        this.root = tree.root();
+    }
+
+    @Override
+    public int root() {
+        return root;
+    }
+
+    @Override
+    public int left(int node) {
+        return (int) INTS.getAcquire(nodes.left, node);
+    }
+
+    @Override
+    public int right(int node) {
+        return (int) INTS.getAcquire(nodes.right, node);
+    }
+
+    @Override
+    public float margin(int node, float[] vector, Kernel kernel) {
+        var planes = nodes.planes;
+        var plane = node * (dimension + 1);
+        return kernel.dot(planes, plane, vector, 0, dimension) + planes[plane + dimension];
+    }
+
+    @Override
+    public int leafSize(int node) {
+        return (int) INTS.getAcquire(nodes.sizes, ~node);
+    }
+
+    @Override
+    public int leafId(int node, int i) {
+        return leaf(node)[i];
+    }
+
+    private int[] leaf(int node) {
+        return (int[]) LEAVES.getAcquire(nodes.leaves, ~node);
+    }
+
+    /**
+     * Route the vector at position of vectors to its leaf, and add it there.
+     * Split the leaf if it grows past maxSize.
+     *
+     * @param position
+     * @param vectors
+     * @param maxSize
+     * @param random
+     * @param kernel
+     * @param metric
+     */
+    public synchronized void insert(int position, VectorStore vectors, long maxSize, Random random,
+                                    Kernel kernel, Metric metric) {
+        Objects.requireNonNull(vectors, "vectors must not be null");
+        var data = vectors.data();
+        var offset = vectors.offset(position);
+        var current = nodes;
+
+        var parent = -1;
+        var above = false;
+        var node = root;
+        while (!Tree.isLeaf(node)) {
+            parent = node;
+            var plane = node * (dimension + 1);
+            above = kernel.dot(current.planes, plane, data, offset, dimension) + current.planes[plane + dimension] >= 0.0;
+            node = above ? current.right[node] : current.left[node];
+        }
+
+        var slot = ~node;
+        var size = current.sizes[slot];
+        if (size + 1 <= maxSize || size + 1 < 2 * unsplitSizes[slot]) {
+            append(current, slot, position);
+            return;
+        }
+
+        var grown = Arrays.copyOf(current.leaves[slot], size + 1);
+        grown[size] = position;
+        var subtree = new Plane(vectors, grown, random, kernel, metric).partition(maxSize);
+        if (subtree.leafCount() == 1) {
+            unsplitSizes[slot] = unsplitSize(grown.length, maxSize);
+            append(current, slot, position);
+            return;
+        }
+        var ref = graft(subtree, slot, maxSize);
+        if (parent < 0) {
+            root = ref;
+        } else {
+            INTS.setRelease(above ? nodes.right : nodes.left, parent, ref);
+        }
+        // The subtree is linked, the slot of the split leaf can now hold the first leaf of the subtree.
+        var offsets = subtree.leafOffsets();
+        write(nodes, slot, subtree.ids(), offsets[0], offsets[1], maxSize);
+    }
+
+    /**
+     * Add position at the end of a leaf, in place if it has spare capacity.
+     */
+    private static void append(Nodes nodes, int slot, int position) {
+        var leaf = nodes.leaves[slot];
+        var size = nodes.sizes[slot];
+        if (size == leaf.length) {
+            leaf = Arrays.copyOf(leaf, Math.max(4, size + (size >> 1)));
+            LEAVES.setRelease(nodes.leaves, slot, leaf);
+        }
+        leaf[size] = position;
+        INTS.setRelease(nodes.sizes, slot, size + 1);
+    }
+
+    /**
+     * Replace the positions of a reachable leaf with ids[from, to), in place if they fit.
+     * The array is never replaced by a shorter one, so readers that loaded the previous size stay in bounds.
+     */
+    private void write(Nodes nodes, int slot, int[] ids, int from, int to, long maxSize) {
+        var leaf = nodes.leaves[slot];
+        if (to - from > leaf.length) {
+            leaf = Arrays.copyOfRange(ids, from, to);
+            LEAVES.setRelease(nodes.leaves, slot, leaf);
+        } else {
+            System.arraycopy(ids, from, leaf, 0, to - from);
+        }
+        INTS.setRelease(nodes.sizes, slot, to - from);
+        unsplitSizes[slot] = unsplitSize(to - from, maxSize);
+    }
+
+    /**
+     * Append the nodes of a tree, except its first leaf, which goes to slot. Nothing is reachable from the root
+     * until the returned reference is linked, and slot is only written by {@link #write}.
+     * Leaves that are still larger than maxSize are not split again until they double in size.
+     *
+     * @return the reference of the root of tree in this tree
+     */
+    private int graft(FlatTree tree, int slot, long maxSize) {
+        ensureCapacity(innerCount + tree.innerCount(), leafCount + tree.leafCount() - 1);
+        var current = nodes;
+        var innerBase = innerCount;
+        var leafBase = leafCount;
+
+        var offsets = tree.leafOffsets();
+        for (var l = 1; l < tree.leafCount(); l++) {
+            var leaf = Arrays.copyOfRange(tree.ids(), offsets[l], offsets[l + 1]);
+            current.leaves[leafBase + l - 1] = leaf;
+            current.sizes[leafBase + l - 1] = leaf.length;
+            unsplitSizes[leafBase + l - 1] = unsplitSize(leaf.length, maxSize);
+        }
+        for (var i = 0; i < tree.innerCount(); i++) {
+            current.left[innerBase + i] = relocate(tree.lefts()[i], innerBase, leafBase, slot);
+            current.right[innerBase + i] = relocate(tree.rights()[i], innerBase, leafBase, slot);
+        }
+        System.arraycopy(tree.planes(), 0, current.planes, innerBase * (dimension + 1), tree.planes().length);
+        innerCount += tree.innerCount();
+        leafCount += tree.leafCount() - 1;
+        return relocate(tree.root(), innerBase, leafBase, slot);
+    }
+
+    /**
+     * The size to record for a leaf that could not be split. Small leaves are split again on the next insert,
+     * since that is cheap and keeps them within maxSize. Large ones wait until they double in size,
+     * so that inserting identical vectors splits a leaf a logarithmic number of times.
+     */
+    private static int unsplitSize(int size, long maxSize) {
+        return size > 2 * maxSize ? size : 0;
+    }
+
+    /**
+     * Shift a node reference of a grafted tree, whose first leaf goes to slot.
+     */
+    private static int relocate(int node, int innerBase, int leafBase, int slot) {
+        if (node == ~0) {
+            return ~slot;
+        }
+        return FlatTree.relocate(Tree.isLeaf(node) ? ~(~node - 1) : node, innerBase, leafBase);
+    }
+
+    private void ensureCapacity(int inner, int leaves) {
+        var current = nodes;
+        if (inner <= current.left.length && leaves <= current.leaves.length) {
+            return;
+        }
+        var innerCapacity = Math.max(inner, current.left.length + (current.left.length >> 1));
+        var leafCapacity = Math.max(leaves, current.leaves.length + (current.leaves.length >> 1));
+        unsplitSizes = Arrays.copyOf(unsplitSizes, leafCapacity);
+        nodes = new Nodes(
+                Arrays.copyOf(current.left, innerCapacity),
+                Arrays.copyOf(current.right, innerCapacity),
+                Arrays.copyOf(current.planes, innerCapacity * (dimension + 1)),
+                Arrays.copyOf(current.leaves, leafCapacity),
+                Arrays.copyOf(current.sizes, leafCapacity));
+    }
+
+    /**
+     * Encode the nodes reachable from the root as a {@link FlatTree}.
+     *
+     * @return
+     */
+    public synchronized FlatTree toFlatTree() {
+        var builder = new FlatTree.Builder(dimension);
+        return builder.build(encode(builder, root));
+    }
+
+    private int encode(FlatTree.Builder builder, int node) {
+        var current = nodes;
+        if (Tree.isLeaf(node)) {
+            return builder.addLeaf(current.leaves[~node], 0, current.sizes[~node]);
+        }
+        var plane = node * (dimension + 1);
+        var ref = builder.addInner(Arrays.copyOfRange(current.planes, plane, plane + dimension),
+                current.planes[plane + dimension]);
+        var left = encode(builder, current.left[node]);
+        var right = encode(builder, current.right[node]);
+        builder.setChildren(ref, left, right);
+        return ref;
+    }
+
+    /**
+     * Number of leaves, all reachable from the root since the slots of split leaves are reused.
+     *
+     * @return
+     */
+    public synchronized int leafCount() {
+        return leafCount;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+}
@@ -1,34 +1,57 @@
 package io.github.gmodena.searchy.bsp;
 
 import java.io.Serializable;
-import java.util.List;
-
-/**
- * A hyperplane is a subspace of one dimension less than the space it divides.
- *
- * @param plane hyperplane boundary
- * @param above ids of nodes above the hyperplane boundary
- * @param below ids of nodes below the hyperplane boundary
- */
-record Partition(Hyperplane plane, List<Integer> above, List<Integer> below) {
-}
 
 /**
  * A hyperplane is a subspace of one dimension less than the space it divides.
  */
 public class Hyperplane implements Serializable {
-    public JVector coeffs;
-    public Float epsilon;
+    public float[] coeffs;
+    public float epsilon;
+    private final Kernel kernel;
 
     /**
      * Create a new hyperplane with the given coefficients and epsilon.
      *
      * @param coeffs  coefficients
      * @param epsilon classification tolerance threshold
+     * @param kernel  kernel used to compute dot products against the coefficients
      */
-    public Hyperplane(JVector coeffs, float epsilon) {
+    public Hyperplane(float[] coeffs, float epsilon, Kernel kernel) {
         this.coeffs = coeffs;
         this.epsilon = epsilon;
+        this.kernel = kernel;
+    }
+
+    /**
+     * Create a new hyperplane with the given coefficients and epsilon.
+     *
+     * @param coeffs  coefficients
+     * @param epsilon classification tolerance threshold
+     */
+    public Hyperplane(JVector coeffs, float epsilon) {
+        this(coeffs.raw(), epsilon, Kernel.SCALAR);
+    }
+
+    /**
+     * Check if the vector starting at offset in data is above the hyperplane.
+     *
+     * @param data
+     * @param offset
+     * @return
+     */
+    public boolean isAbove(float[] data, int offset) {
+        return (kernel.dot(coeffs, 0, data, offset, coeffs.length) + epsilon) >= 0.0;
+    }
+
+    /**
+     * Check if the given vector is above the hyperplane.
+     *
+     * @param vector
+     * @return
+     */
+    public boolean isAbove(float[] vector) {
+        return isAbove(vector, 0);
     }
 
     /**
@@ -38,6 +61,6 @@ public class Hyperplane implements Serializable {
      * @return
      */
     public Boolean isAbove(JVector vector) {
-        return (coeffs.dot(vector) + epsilon) >= 0.0;
+        return isAbove(vector.raw());
     }
-}
\ No newline at end of file
+}
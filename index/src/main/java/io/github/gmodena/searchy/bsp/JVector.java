@@ -2,8 +2,10 @@ package io.github.gmodena.searchy.bsp;
 
 
 import java.io.Serializable;
+import java.lang.foreign.MemorySegment;
 import java.util.Arrays;
-import java.util.stream.IntStream;
+
+import static io.github.gmodena.searchy.bsp.MappedVectors.FLOAT;
 
 public class JVector implements IVector<JVector>, Serializable {
     public int length = 0;
@@ -58,9 +60,7 @@ public class JVector implements IVector<JVector>, Serializable {
      * @return
      */
     public float dot(JVector that) {
-        return (float) IntStream.range(0, length)
-                .mapToDouble(i -> this.points[i] * that.points[i])
-                .reduce(0.0f, (acc, val) -> acc + (float) val);
+        return dot(this.points, 0, that.points, 0, length);
     }
 
 
@@ -71,11 +71,124 @@ public class JVector implements IVector<JVector>, Serializable {
      * @return
      */
     public float distance(JVector that) {
-        return (float) Math.sqrt(
-                IntStream.range(0, length)
-                        .mapToDouble(i -> Math.pow(this.points[i] - that.points[i], 2))
-                        .sum()
-        );
+        return (float) Math.sqrt(squaredDistance(this.points, 0, that.points, 0, length));
+    }
+
+    /**
+     * Dot product of {@code length} elements of a, starting at aOffset, and b, starting at bOffset.
+     *
+     * @param a
+     * @param aOffset
+     * @param b
+     * @param bOffset
+     * @param length
+     * @return
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        var sum = 0.0f;
+        for (var i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Squared euclidean distance of {@code length} elements of a, starting at aOffset,
+     * and b, starting at bOffset.
+     *
+     * @param a
+     * @param aOffset
+     * @param b
+     * @param bOffset
+     * @param length
+     * @return
+     */
+    public static float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        var sum = 0.0f;
+        for (var i = 0; i < length; i++) {
+            var diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Dot product of {@code length} floats of a, starting at byte aOffset, and b, starting at bOffset.
+     *
+     * @param a
+     * @param aOffset
+     * @param b
+     * @param bOffset
+     * @param length
+     * @return
+     */
+    public static float dot(MemorySegment a, long aOffset, float[] b, int bOffset, int length) {
+        var sum = 0.0f;
+        for (var i = 0; i < length; i++) {
+            sum += a.get(FLOAT, aOffset + (long) i * Float.BYTES) * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Squared euclidean distance of {@code length} floats of a, starting at byte aOffset,
+     * and b, starting at bOffset.
+     *
+     * @param a
+     * @param aOffset
+     * @param b
+     * @param bOffset
+     * @param length
+     * @return
+     */
+    public static float squaredDistance(MemorySegment a, long aOffset, float[] b, int bOffset, int length) {
+        var sum = 0.0f;
+        for (var i = 0; i < length; i++) {
+            var diff = a.get(FLOAT, aOffset + (long) i * Float.BYTES) - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Dot product of {@code length} int8 codes of a, starting at aOffset, and b.
+     * Element j of a decodes to {@code offsets[j] + code * scales[j]}. See {@link QuantizedVectors}.
+     *
+     * @param a
+     * @param aOffset
+     * @param offsets
+     * @param scales
+     * @param b
+     * @param length
+     * @return
+     */
+    public static float dot(byte[] a, int aOffset, float[] offsets, float[] scales, float[] b, int length) {
+        var sum = 0.0f;
+        for (var i = 0; i < length; i++) {
+            sum += (offsets[i] + a[aOffset + i] * scales[i]) * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Squared euclidean distance of {@code length} int8 codes of a, starting at aOffset, and b.
+     * Element j of a decodes to {@code offsets[j] + code * scales[j]}. See {@link QuantizedVectors}.
+     *
+     * @param a
+     * @param aOffset
+     * @param offsets
+     * @param scales
+     * @param b
+     * @param length
+     * @return
+     */
+    public static float squaredDistance(byte[] a, int aOffset, float[] offsets, float[] scales, float[] b, int length) {
+        var sum = 0.0f;
+        for (var i = 0; i < length; i++) {
+            var diff = offsets[i] + a[aOffset + i] * scales[i] - b[i];
+            sum += diff * diff;
+        }
+        return sum;
     }
 
     /**
@@ -0,0 +1,176 @@
+package io.github.gmodena.searchy.bsp;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Distance kernels over vectors stored in flat {@code float[]} arrays.
+ * <p>
+ * Vectors are addressed by an array and an offset, so kernels can run directly against
+ * a {@link VectorStore} slab, a query array or a hyperplane normal.
+ * Overloads taking a {@link MemorySegment} and a byte offset run against
+ * little-endian floats in native memory, such as a {@link MappedVectors} file.
+ * Overloads taking a {@code byte[]} run against the int8 codes of a {@link QuantizedVectors} store.
+ */
+public enum Kernel {
+    /**
+     * Plain scalar loops. See {@link JVector}.
+     */
+    SCALAR {
+        @Override
+        public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+            return JVector.dot(a, aOffset, b, bOffset, length);
+        }
+
+        @Override
+        public float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+            return JVector.squaredDistance(a, aOffset, b, bOffset, length);
+        }
+
+        @Override
+        public float dot(MemorySegment a, long aOffset, float[] b, int bOffset, int length) {
+            return JVector.dot(a, aOffset, b, bOffset, length);
+        }
+
+        @Override
+        public float squaredDistance(MemorySegment a, long aOffset, float[] b, int bOffset, int length) {
+            return JVector.squaredDistance(a, aOffset, b, bOffset, length);
+        }
+
+        @Override
+        public float dot(byte[] a, int aOffset, float[] offsets, float[] scales, float[] b, int length) {
+            return JVector.dot(a, aOffset, offsets, scales, b, length);
+        }
+
+        @Override
+        public float squaredDistance(byte[] a, int aOffset, float[] offsets, float[] scales, float[] b, int length) {
+            return JVector.squaredDistance(a, aOffset, offsets, scales, b, length);
+        }
+    },
+    /**
+     * Vector API loops. See {@link SIMDVector}.
+     * Requires the {@code jdk.incubator.vector} module at runtime.
+     */
+    SIMD {
+        @Override
+        public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+            return SIMDVector.dot(a, aOffset, b, bOffset, length);
+        }
+
+        @Override
+        public float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+            return SIMDVector.squaredDistance(a, aOffset, b, bOffset, length);
+        }
+
+        @Override
+        public float dot(MemorySegment a, long aOffset, float[] b, int bOffset, int length) {
+            return SIMDVector.dot(a, aOffset, b, bOffset, length);
+        }
+
+        @Override
+        public float squaredDistance(MemorySegment a, long aOffset, float[] b, int bOffset, int length) {
+            return SIMDVector.squaredDistance(a, aOffset, b, bOffset, length);
+        }
+
+        @Override
+        public float dot(byte[] a, int aOffset, float[] offsets, float[] scales, float[] b, int length) {
+            return SIMDVector.dot(a, aOffset, offsets, scales, b, length);
+        }
+
+        @Override
+        public float squaredDistance(byte[] a, int aOffset, float[] offsets, float[] scales, float[] b, int length) {
+            return SIMDVector.squaredDistance(a, aOffset, offsets, scales, b, length);
+        }
+    };
+
+    /**
+     * Dot product of {@code length} elements of a, starting at aOffset, and b, starting at bOffset.
+     *
+     * @param a
+     * @param aOffset
+     * @param b
+     * @param bOffset
+     * @param length
+     * @return
+     */
+    public abstract float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * Squared euclidean distance of {@code length} elements of a, starting at aOffset,
+     * and b, starting at bOffset.
+     *
+     * @param a
+     * @param aOffset
+     * @param b
+     * @param bOffset
+     * @param length
+     * @return
+     */
+    public abstract float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * Dot product of {@code length} floats of a, starting at byte aOffset, and b, starting at bOffset.
+     *
+     * @param a
+     * @param aOffset
+     * @param b
+     * @param bOffset
+     * @param length
+     * @return
+     */
+    public abstract float dot(MemorySegment a, long aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * Squared euclidean distance of {@code length} floats of a, starting at byte aOffset,
+     * and b, starting at bOffset.
+     *
+     * @param a
+     * @param aOffset
+     * @param b
+     * @param bOffset
+     * @param length
+     * @return
+     */
+    public abstract float squaredDistance(MemorySegment a, long aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * Dot product of {@code length} int8 codes of a, starting at aOffset, and b.
+     * Element j of a decodes to {@code offsets[j] + code * scales[j]}. See {@link QuantizedVectors}.
+     *
+     * @param a
+     * @param aOffset
+     * @param offsets
+     * @param scales
+     * @param b
+     * @param length
+     * @return
+     */
+    public abstract float dot(byte[] a, int aOffset, float[] offsets, float[] scales, float[] b, int length);
+
+    /**
+     * Squared euclidean distance of {@code length} int8 codes of a, starting at aOffset, and b.
+     * Element j of a decodes to {@code offsets[j] + code * scales[j]}. See {@link QuantizedVectors}.
+     *
+     * @param a
+     * @param aOffset
+     * @param offsets
+     * @param scales
+     * @param b
+     * @param length
+     * @return
+     */
+    public abstract float squaredDistance(byte[] a, int aOffset, float[] offsets, float[] scales, float[] b, int length);
+
+    /**
+     * Euclidean distance of {@code length} elements of a, starting at aOffset, and b, starting at bOffset.
+     *
+     * @param a
+     * @param aOffset
+     * @param b
+     * @param bOffset
+     * @param length
+     * @return
+     */
+    public float distance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        return (float) Math.sqrt(squaredDistance(a, aOffset, b, bOffset, length));
+    }
+}
@@ -0,0 +1,88 @@
+package io.github.gmodena.searchy.bsp;
+
+import java.lang.foreign.MemorySegment;
+
+import static io.github.gmodena.searchy.bsp.MappedVectors.FLOAT;
+import static io.github.gmodena.searchy.bsp.MappedVectors.INT;
+
+/**
+ * A {@link Tree} read directly from a {@link MemorySegment}, typically a memory mapped file.
+ * <p>
+ * The tree is described by byte offsets of its sections in the segment:
+ * <ul>
+ *     <li>left, right: one little-endian int per inner node, the child node references.</li>
+ *     <li>planes: dimension + 1 floats per inner node, the hyperplane normal followed by its offset.</li>
+ *     <li>leafOffsets: leafCount + 1 ints, the range of each leaf in ids.</li>
+ *     <li>ids: the positions held by the leaves.</li>
+ * </ul>
+ */
+public final class MappedTree implements Tree {
+    private final MemorySegment segment;
+    private final int dimension;
+    private final int root;
+    private final long left;
+    private final long right;
+    private final long planes;
+    private final long leafOffsets;
+    private final long ids;
+
+    /**
+     * Create a tree over the sections of segment starting at the given byte offsets.
+     *
+     * @param segment
+     * @param dimension
+     * @param root
+     * @param left
+     * @param right
+     * @param planes
+     * @param leafOffsets
+     * @param ids
+     */
+    public MappedTree(MemorySegment segment, int dimension, int root,
+                      long left, long right, long planes, long leafOffsets, long ids) {
+        this.segment = segment;
+        this.dimension = dimension;
+        this.root = root;
+        this.left = left;
+        this.right = right;
+        this.planes = planes;
+        this.leafOffsets = leafOffsets;
+        this.ids = ids;
+    }
+
+    @Override
+    public int root() {
+        return root;
+    }
+
+    @Override
+    public int left(int node) {
+        return segment.get(INT, left + (long) node * Integer.BYTES);
+    }
+
+    @Override
+    public int right(int node) {
+        return segment.get(INT, right + (long) node * Integer.BYTES);
+    }
+
+    @Override
+    public float margin(int node, float[] vector, Kernel kernel) {
+        var plane = planes + (long) node * (dimension + 1) * Float.BYTES;
+        var epsilon = segment.get(FLOAT, plane + (long) dimension * Float.BYTES);
+        return kernel.dot(segment, plane, vector, 0, dimension) + epsilon;
+    }
+
+    @Override
+    public int leafSize(int node) {
+        return leafStart(~node + 1) - leafStart(~node);
+    }
+
+    @Override
+    public int leafId(int node, int i) {
+        return segment.get(INT, ids + (long) (leafStart(~node) + i) * Integer.BYTES);
+    }
+
+    private int leafStart(int leaf) {
+        return segment.get(INT, leafOffsets + (long) leaf * Integer.BYTES);
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.gmodena.searchy.bsp;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+/**
+ * Vectors stored row-major in a {@link MemorySegment}, typically a memory mapped file.
+ * <p>
+ * Values are little-endian 32-bit floats. Distances are computed directly against the segment;
+ * nothing is copied onto the heap.
+ */
+public final class MappedVectors implements Vectors {
+    public static final ValueLayout.OfFloat FLOAT = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    public static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    public static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private final MemorySegment segment;
+    private final int dimension;
+    private final int size;
+
+    /**
+     * Create a view over size vectors of the given dimension, starting at the beginning of segment.
+     *
+     * @param segment
+     * @param dimension
+     * @param size
+     */
+    public MappedVectors(MemorySegment segment, int dimension, int size) {
+        if (segment.byteSize() < (long) size * dimension * Float.BYTES) {
+            throw new IllegalArgumentException("segment is too small for " + size + " vectors of dimension " + dimension);
+        }
+        this.segment = segment;
+        this.dimension = dimension;
+        this.size = size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public float[] get(int i) {
+        var vector = new float[dimension];
+        MemorySegment.copy(segment, FLOAT, offset(i), vector, 0, dimension);
+        return vector;
+    }
+
+    @Override
+    public void get(int i, float[] into) {
+        MemorySegment.copy(segment, FLOAT, offset(i), into, 0, dimension);
+    }
+
+    @Override
+    public float dot(int i, float[] vector, Kernel kernel) {
+        return kernel.dot(segment, offset(i), vector, 0, dimension);
+    }
+
+    @Override
+    public float squaredDistance(int i, float[] vector, Kernel kernel) {
+        return kernel.squaredDistance(segment, offset(i), vector, 0, dimension);
+    }
+
+    /**
+     * Byte offset of the vector at position i in the segment.
+     *
+     * @param i
+     * @return
+     */
+    public long offset(int i) {
+        Objects.checkIndex(i, size);
+        return (long) i * dimension * Float.BYTES;
+    }
+}
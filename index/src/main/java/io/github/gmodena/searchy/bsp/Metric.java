@@ -0,0 +1,227 @@
+package io.github.gmodena.searchy.bsp;
+
+/**
+ * Distance metrics between a stored vector and a query.
+ * <p>
+ * Candidates are ranked by {@link #distance(Vectors, int, float[], Kernel)}, where smaller is closer.
+ * The ranking distance avoids work that does not change the order of candidates, such as the square
+ * root of {@link #EUCLIDEAN}, which is only applied to the final top k by {@link #finish(float)}.
+ */
+public enum Metric {
+    /**
+     * Euclidean distance. Ranked by squared distance, reported with a square root.
+     */
+    EUCLIDEAN {
+        @Override
+        public float distance(Vectors vectors, int i, float[] query, Kernel kernel) {
+            return vectors.squaredDistance(i, query, kernel);
+        }
+
+        @Override
+        public float finish(float distance) {
+            return (float) Math.sqrt(distance);
+        }
+    },
+    /**
+     * Squared euclidean distance.
+     */
+    SQUARED_EUCLIDEAN {
+        @Override
+        public float distance(Vectors vectors, int i, float[] query, Kernel kernel) {
+            return vectors.squaredDistance(i, query, kernel);
+        }
+    },
+    /**
+     * Maximum inner product. The distance is the negated dot product, so that larger products rank first.
+     * Trees split on angles, since inner products do not define a metric space.
+     */
+    INNER_PRODUCT {
+        @Override
+        public float distance(Vectors vectors, int i, float[] query, Kernel kernel) {
+            return -vectors.dot(i, query, kernel);
+        }
+
+        @Override
+        public boolean isAngular() {
+            return true;
+        }
+
+        @Override
+        public boolean usesDotProduct() {
+            return true;
+        }
+
+        @Override
+        public float fromDotProduct(float dot) {
+            return -dot;
+        }
+    },
+    /**
+     * Cosine distance, {@code 1 - cos(a, b)}. Vectors and queries are normalized to unit length,
+     * so the distance is computed with a single dot product.
+     */
+    COSINE {
+        @Override
+        public float distance(Vectors vectors, int i, float[] query, Kernel kernel) {
+            return 1.0f - vectors.dot(i, query, kernel);
+        }
+
+        @Override
+        public boolean isAngular() {
+            return true;
+        }
+
+        @Override
+        public boolean usesDotProduct() {
+            return true;
+        }
+
+        @Override
+        public float fromDotProduct(float dot) {
+            return 1.0f - dot;
+        }
+
+        @Override
+        public float[] prepare(float[] vector) {
+            return normalize(vector);
+        }
+
+        @Override
+        public float[] prepare(float[] vector, float[] buffer) {
+            return normalize(vector, buffer);
+        }
+
+        @Override
+        public boolean preparesVectors() {
+            return true;
+        }
+    };
+
+    /**
+     * Ranking distance between the vector at position i and query. Smaller is closer.
+     *
+     * @param vectors
+     * @param i
+     * @param query   a query returned by {@link #prepare(float[])}
+     * @param kernel
+     * @return
+     */
+    public abstract float distance(Vectors vectors, int i, float[] query, Kernel kernel);
+
+    /**
+     * Convert a ranking distance to the distance reported to callers.
+     *
+     * @param distance
+     * @return
+     */
+    public float finish(float distance) {
+        return distance;
+    }
+
+    /**
+     * Whether trees should split vectors by angle, with hyperplanes through the origin.
+     *
+     * @return
+     */
+    public boolean isAngular() {
+        return false;
+    }
+
+    /**
+     * Whether the distance is a function of the dot product, see {@link #fromDotProduct(float)}.
+     * Otherwise, it is the squared euclidean distance.
+     *
+     * @return
+     */
+    public boolean usesDotProduct() {
+        return false;
+    }
+
+    /**
+     * Ranking distance of a query and a vector with the given dot product.
+     *
+     * @param dot
+     * @return
+     * @throws UnsupportedOperationException if the metric does not use the dot product
+     */
+    public float fromDotProduct(float dot) {
+        throw new UnsupportedOperationException(name() + " is not a dot product metric");
+    }
+
+    /**
+     * Prepare a vector for storage or querying.
+     *
+     * @param vector
+     * @return vector, or a transformed copy of it
+     */
+    public float[] prepare(float[] vector) {
+        return vector;
+    }
+
+    /**
+     * Prepare a query without allocating. Metrics that transform the query write it to buffer.
+     *
+     * @param vector
+     * @param buffer as many floats as vector
+     * @return vector, or buffer holding its transformed copy
+     */
+    public float[] prepare(float[] vector, float[] buffer) {
+        return vector;
+    }
+
+    /**
+     * Whether {@link #prepare(float[])} transforms vectors, rather than return them as is.
+     *
+     * @return
+     */
+    public boolean preparesVectors() {
+        return false;
+    }
+
+    /**
+     * Prepare every vector of a store in place, with two reused buffers. Does nothing if the metric
+     * does not transform vectors.
+     *
+     * @param vectors
+     */
+    public void prepare(VectorStore vectors) {
+        if (!preparesVectors()) {
+            return;
+        }
+        var vector = new float[vectors.dimension()];
+        var buffer = new float[vectors.dimension()];
+        for (var i = 0; i < vectors.size(); i++) {
+            vectors.get(i, vector);
+            vectors.set(i, prepare(vector, buffer));
+        }
+    }
+
+    /**
+     * A unit length copy of vector. Zero vectors are copied as is.
+     *
+     * @param vector
+     * @return
+     */
+    public static float[] normalize(float[] vector) {
+        return normalize(vector, new float[vector.length]);
+    }
+
+    /**
+     * Write a unit length copy of vector to normalized. Zero vectors are copied as is.
+     *
+     * @param vector
+     * @param normalized as many floats as vector
+     * @return normalized
+     */
+    public static float[] normalize(float[] vector, float[] normalized) {
+        var norm = (float) Math.sqrt(JVector.dot(vector, 0, vector, 0, vector.length));
+        if (norm == 0.0f) {
+            System.arraycopy(vector, 0, normalized, 0, vector.length);
+            return normalized;
+        }
+        for (var i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] / norm;
+        }
+        return normalized;
+    }
+}
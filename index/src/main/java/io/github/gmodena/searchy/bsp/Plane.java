@@ -1,48 +1,123 @@
 package io.github.gmodena.searchy.bsp;
 
-import java.util.*;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * A binary space partitioning tree for vector spaces.
+ * Trees are emitted in the {@link FlatTree} encoding.
  * The implementation is light on defensive programming. References
  * to mutable objects are passed around and stored in the constructors. This is a potential source of bugs, but a tradeoff
  * to avoid unnecessary object creation and copying.
+ * <p>
+ * Ids are positions in a {@link VectorStore}. Hyperplanes are computed directly
+ * against the store slab.
  */
 public final class Plane {
     public final static long MAX_SIZE = 15;
-    private final List<JVector> vectors;
-    private final List<Integer> ids;
-    private final Random random;
+    // Hyperplanes sampled before giving up on splitting a node.
+    private final static int MAX_ATTEMPTS = 3;
+    // Subtrees with more vectors are forked.
+    public final static int FORK_THRESHOLD = 1 << 12;
+    private final VectorStore vectors;
+    private final int[] ids;
+    private final SplittableRandom random;
+    private final Kernel kernel;
+    private final Metric metric;
 
     /**
      * Creates a new plane with the given vectors and vector IDs, using a new Random instance.
      *
-     * @param vectors The list of vectors to initialize the plane with
-     * @param ids The list of IDs corresponding to each vector
+     * @param vectors The store of vectors to initialize the plane with
+     * @param ids The list of positions in the store to partition
      * @throws NullPointerException if either vectors or ids is null
-     * @throws IllegalArgumentException if vectors and ids have different sizes
      */
-    public Plane(List<JVector> vectors, List<Integer> ids) {
+    public Plane(VectorStore vectors, List<Integer> ids) {
         this(vectors, ids, new Random());
     }
 
     /**
      * Creates a new plane with the given vectors, vector IDs, and random number generator.
      *
-     * @param vectors The list of vectors to initialize the plane with
-     * @param ids The list of IDs corresponding to each vector
+     * @param vectors The store of vectors to initialize the plane with
+     * @param ids The list of positions in the store to partition
      * @param random The random number generator to use
      * @throws NullPointerException if any parameter is null
-     * @throws IllegalArgumentException if vectors and ids have different sizes
      */
-    public Plane(List<JVector> vectors, List<Integer> ids, Random random) {
+    public Plane(VectorStore vectors, List<Integer> ids, Random random) {
+        this(vectors, ids, random, Kernel.SCALAR);
+    }
+
+    /**
+     * Creates a new plane with the given vectors, vector IDs, random number generator and distance kernel.
+     *
+     * @param vectors The store of vectors to initialize the plane with
+     * @param ids The list of positions in the store to partition
+     * @param random The random number generator to use
+     * @param kernel The kernel used to compute hyperplanes
+     * @throws NullPointerException if any parameter is null
+     */
+    public Plane(VectorStore vectors, List<Integer> ids, Random random, Kernel kernel) {
+        this(vectors, ids, random, kernel, Metric.EUCLIDEAN);
+    }
+
+    /**
+     * Creates a new plane with the given vectors, vector IDs, random number generator, distance kernel and metric.
+     *
+     * @param vectors The store of vectors to initialize the plane with
+     * @param ids The list of positions in the store to partition
+     * @param random The random number generator to use
+     * @param kernel The kernel used to compute hyperplanes
+     * @param metric The metric the tree is searched with. Angular metrics split through the origin.
+     * @throws NullPointerException if any parameter is null
+     */
+    public Plane(VectorStore vectors, List<Integer> ids, Random random, Kernel kernel, Metric metric) {
+        this(vectors, Objects.requireNonNull(ids, "ids must not be null").stream().mapToInt(Integer::intValue).toArray(),
+                random, kernel, metric);
+    }
+
+    /**
+     * Creates a new plane over an array of positions. The array is not modified.
+     *
+     * @param vectors The store of vectors to initialize the plane with
+     * @param ids The positions in the store to partition
+     * @param random The random number generator to use
+     * @param kernel The kernel used to compute hyperplanes
+     * @param metric The metric the tree is searched with. Angular metrics split through the origin.
+     * @throws NullPointerException if any parameter is null
+     */
+    public Plane(VectorStore vectors, int[] ids, Random random, Kernel kernel, Metric metric) {
+        this(vectors, ids, new SplittableRandom(Objects.requireNonNull(random, "random must not be null").nextLong()),
+                kernel, metric);
+    }
+
+    /**
+     * Creates a new plane over an array of positions, drawing random streams from a splittable generator.
+     * The array is not modified.
+     *
+     * @param vectors The store of vectors to initialize the plane with
+     * @param ids The positions in the store to partition
+     * @param random The generator trees are split from, see {@link #partition(long)}
+     * @param kernel The kernel used to compute hyperplanes
+     * @param metric The metric the tree is searched with. Angular metrics split through the origin.
+     * @throws NullPointerException if any parameter is null
+     */
+    public Plane(VectorStore vectors, int[] ids, SplittableRandom random, Kernel kernel, Metric metric) {
         Objects.requireNonNull(vectors, "vectors must not be null");
         Objects.requireNonNull(ids, "ids must not be null");
         Objects.requireNonNull(random, "random must not be null");
+        Objects.requireNonNull(kernel, "kernel must not be null");
+        Objects.requireNonNull(metric, "metric must not be null");
 
-        this.random = Random.from(random);
-        this.vectors = List.copyOf(vectors);
-        this.ids = List.copyOf(ids);
+        this.random = random;
+        this.vectors = vectors;
+        this.ids = ids;
+        this.kernel = kernel;
+        this.metric = metric;
     }
 
     /**
@@ -50,68 +125,157 @@ public final class Plane {
      *
      * @return
      */
-    public Node partition() {
+    public FlatTree partition() {
         return partition(MAX_SIZE);
     }
 
     /**
      * Partition the vectors into a binary space partitioning tree with the given maximum size.
+     * Subtrees with more than {@link #FORK_THRESHOLD} vectors are built in parallel, in the
+     * {@link ForkJoinPool} of the calling thread, or the common pool.
+     * <p>
+     * Each call splits a new random stream off the generator of this plane. Concurrent calls are safe,
+     * but the tree each one gets depends on the order of the calls; use {@link #partition(long, SplittableRandom)}
+     * with streams split upfront to build several trees reproducibly in parallel.
      *
      * @param maxSize
      * @return
      */
-    public Node partition(long maxSize) {
-        return partition(maxSize, ids);
+    public FlatTree partition(long maxSize) {
+        return partition(maxSize, split());
     }
 
-    private Node partition(long maxSize, List<Integer> vectorIds) {
-        if (vectorIds.size() <= maxSize) {
-            return new Node.LeafNode(vectorIds);
-        }
-        var hyperplane = binaryPartition(vectors, vectorIds);
-
-        var leftNode = partition(maxSize, hyperplane.below());
-        var rightNode = partition(maxSize, hyperplane.above());
+    /**
+     * Partition the vectors with the given random stream. The tree only depends on the stream,
+     * not on how subtrees are scheduled.
+     *
+     * @param maxSize
+     * @param random a stream not used by any other thread
+     * @return
+     */
+    public FlatTree partition(long maxSize, SplittableRandom random) {
+        Objects.requireNonNull(random, "random must not be null");
+        return new Subtree(maxSize, ids.clone(), 0, ids.length, random).invoke();
+    }
 
-        return new Node.InnerNode(hyperplane.plane(), leftNode, rightNode);
+    private synchronized SplittableRandom split() {
+        return random.split();
     }
 
     /**
-     * Generates a random hyperplane in a vector space
-     * and uses it to partition a set of vectors into two groups: those that are
-     * above the hyperplane and those that are below it.
-     * <p>
-     * The result is encapsulated in a Partition object, which is
-     * a record representing a partition of a vector space.
-     *
-     * @param ids
-     * @return
+     * Builds the tree of ids[from] up to, excluding, ids[to], reordering that range in place.
      */
-    private Partition binaryPartition(List<JVector> vectors, List<Integer> ids) {
-        List<Integer> sample = new ArrayList<>();
+    private final class Subtree extends RecursiveTask<FlatTree> {
+        private final long maxSize;
+        private final int[] ids;
+        private final int from;
+        private final int to;
+        private final SplittableRandom random;
+
+        private Subtree(long maxSize, int[] ids, int from, int to, SplittableRandom random) {
+            this.maxSize = maxSize;
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+            this.random = random;
+        }
+
+        @Override
+        protected FlatTree compute() {
+            var tree = new FlatTree.Builder(vectors.dimension());
+            return tree.build(partition(tree, from, to));
+        }
+
+        /**
+         * Recursively encode the partition of ids[from..to) in tree.
+         *
+         * @return the reference of the encoded node
+         */
+        private int partition(FlatTree.Builder tree, int from, int to) {
+            if (to - from <= maxSize) {
+                return tree.addLeaf(ids, from, to);
+            }
+            var hyperplane = hyperplane(ids, from, to, random);
+            var split = split(hyperplane, ids, from, to);
+            for (var attempt = 1; attempt < MAX_ATTEMPTS && (split == from || split == to); attempt++) {
+                hyperplane = hyperplane(ids, from, to, random);
+                split = split(hyperplane, ids, from, to);
+            }
+            if (split == from || split == to) {
+                // All vectors are on one side, most likely because they are identical.
+                // Keep them in an oversized leaf, rather than recursing forever.
+                return tree.addLeaf(ids, from, to);
+            }
 
-        sample.add(ids.get(random.nextInt(ids.size())));
-        sample.add(ids.get(random.nextInt(ids.size())));
+            var node = tree.addInner(hyperplane.coeffs, hyperplane.epsilon);
+            int leftNode;
+            int rightNode;
+            if (to - from > FORK_THRESHOLD) {
+                // Streams are split before forking, so that trees do not depend on scheduling.
+                var below = new Subtree(maxSize, ids, from, split, random.split());
+                var above = new Subtree(maxSize, ids, split, to, random.split());
+                above.fork();
+                leftNode = tree.addTree(below.compute());
+                rightNode = tree.addTree(above.join());
+            } else {
+                leftNode = partition(tree, from, split);
+                rightNode = partition(tree, split, to);
+            }
+            tree.setChildren(node, leftNode, rightNode);
 
-        var a = vectors.get(sample.get(0));
-        var b = vectors.get(sample.get(1));
+            return node;
+        }
+    }
 
-        var coefficients = a.sub(b);
-        var pointOnPlane = a.mean(b);
-        var constant = -coefficients.dot(pointOnPlane);
+    /**
+     * Generates a random hyperplane between two vectors sampled from ids[from..to).
+     */
+    private Hyperplane hyperplane(int[] ids, int from, int to, SplittableRandom random) {
+        var data = vectors.data();
+        var dimension = vectors.dimension();
+        var a = vectors.offset(ids[from + random.nextInt(to - from)]);
+        var b = vectors.offset(ids[from + random.nextInt(to - from)]);
 
-        var hyperplane = new Hyperplane(coefficients, constant);
+        var coefficients = new float[dimension];
+        float constant;
+        if (metric.isAngular()) {
+            // Split by angle: the hyperplane through the origin, halfway between the directions of a and b.
+            var normA = (float) Math.sqrt(kernel.dot(data, a, data, a, dimension));
+            var normB = (float) Math.sqrt(kernel.dot(data, b, data, b, dimension));
+            for (var i = 0; i < dimension; i++) {
+                coefficients[i] = (normA > 0 ? data[a + i] / normA : 0) - (normB > 0 ? data[b + i] / normB : 0);
+            }
+            constant = 0.0f;
+        } else {
+            var pointOnPlane = new float[dimension];
+            for (var i = 0; i < dimension; i++) {
+                coefficients[i] = data[a + i] - data[b + i];
+                pointOnPlane[i] = (data[a + i] + data[b + i]) / 2.0f;
+            }
+            constant = -kernel.dot(coefficients, 0, pointOnPlane, 0, dimension);
+        }
 
-        List<Integer> above = new ArrayList<>();
-        List<Integer> below = new ArrayList<>();
+        return new Hyperplane(coefficients, constant, kernel);
+    }
 
-        for (int id : ids) {
-            if (hyperplane.isAbove(vectors.get(id))) {
-                above.add(id);
+    /**
+     * Reorder ids[from..to) in place, so that ids below the hyperplane come before ids above it.
+     *
+     * @return the index of the first id above the hyperplane
+     */
+    private int split(Hyperplane hyperplane, int[] ids, int from, int to) {
+        var data = vectors.data();
+        var i = from;
+        var j = to - 1;
+        while (i <= j) {
+            if (hyperplane.isAbove(data, vectors.offset(ids[i]))) {
+                var tmp = ids[i];
+                ids[i] = ids[j];
+                ids[j--] = tmp;
             } else {
-                below.add(id);
+                i++;
             }
         }
-        return new Partition(hyperplane, above, below);
+        return i;
     }
 }
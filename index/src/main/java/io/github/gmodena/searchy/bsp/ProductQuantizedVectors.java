@@ -0,0 +1,340 @@
+package io.github.gmodena.searchy.bsp;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Vectors product quantized to one byte per subspace.
+ * <p>
+ * Dimensions are split into contiguous subspaces. Each subspace has a codebook of up to 256 centroids,
+ * trained with k-means over a sample of the vectors, and a vector is encoded as the index of the
+ * closest centroid in each subspace.
+ * <p>
+ * Queries are scored with asymmetric distance computation (ADC): {@link #table(float[], Metric, Kernel, float[])}
+ * computes, once per query, the distance of each query subvector to each centroid. The distance of
+ * a vector is then the sum of one table lookup per subspace, see {@link #distance(int, float[], Metric)}.
+ */
+public final class ProductQuantizedVectors implements Vectors, Serializable {
+    public static final int MAX_CENTROIDS = 256;
+    public static final int SAMPLE_SIZE = 64 * MAX_CENTROIDS;
+    public static final int ITERATIONS = 20;
+
+    private final int dimension;
+    private final int size;
+    private final int subspaces;
+    private final int centroids;
+    // Subspace m spans dimensions [bounds[m], bounds[m + 1]).
+    private final int[] bounds;
+    // Centroid c of subspace m starts at centroids * bounds[m] + c * width(m).
+    private final float[] codebooks;
+    // Row-major, one unsigned byte per subspace.
+    private final byte[] codes;
+
+    /**
+     * Create a store over existing codes and codebooks.
+     *
+     * @param dimension
+     * @param size
+     * @param subspaces
+     * @param centroids number of centroids in each codebook
+     * @param codebooks centroids of all subspaces, {@code centroids * dimension} floats
+     * @param codes     row-major codes of size vectors, one per subspace
+     */
+    public ProductQuantizedVectors(int dimension, int size, int subspaces, int centroids, float[] codebooks, byte[] codes) {
+        Objects.requireNonNull(codebooks, "codebooks must not be null");
+        Objects.requireNonNull(codes, "codes must not be null");
+        checkSubspaces(dimension, subspaces);
+        if (centroids <= 0 || centroids > MAX_CENTROIDS) {
+            throw new IllegalArgumentException("centroids must be in [1, " + MAX_CENTROIDS + "]");
+        }
+        if (codebooks.length != centroids * dimension || codes.length < (long) size * subspaces) {
+            throw new IllegalArgumentException("Codes and codebooks do not match dimension " + dimension);
+        }
+        this.dimension = dimension;
+        this.size = size;
+        this.subspaces = subspaces;
+        this.centroids = centroids;
+        this.codebooks = codebooks;
+        this.codes = codes;
+        this.bounds = new int[subspaces + 1];
+        for (var m = 0; m <= subspaces; m++) {
+            bounds[m] = (int) ((long) dimension * m / subspaces);
+        }
+    }
+
+    /**
+     * Train codebooks on a sample of the vectors of a store, and encode all of them.
+     *
+     * @param vectors
+     * @param subspaces number of subspaces, at most the dimension of the vectors
+     * @param random
+     * @param kernel
+     * @return
+     */
+    public static ProductQuantizedVectors encode(VectorStore vectors, int subspaces, Random random, Kernel kernel) {
+        var dimension = vectors.dimension();
+        checkSubspaces(dimension, subspaces);
+        var size = vectors.size();
+        var centroids = Math.max(1, Math.min(MAX_CENTROIDS, size));
+        var sample = sample(size, Math.min(size, SAMPLE_SIZE), random);
+        var seeds = random.longs(subspaces).toArray();
+
+        var codebooks = new float[centroids * dimension];
+        var codes = new byte[size * subspaces];
+        var pq = new ProductQuantizedVectors(dimension, size, subspaces, centroids, codebooks, codes);
+        IntStream.range(0, subspaces).parallel().forEach(m -> {
+            pq.train(vectors, m, sample, new Random(seeds[m]), kernel);
+            for (var i = 0; i < size; i++) {
+                codes[i * subspaces + m] = (byte) pq.nearest(vectors.data(), vectors.offset(i), m, kernel);
+            }
+        });
+        return pq;
+    }
+
+    private static void checkSubspaces(int dimension, int subspaces) {
+        if (subspaces <= 0 || subspaces > dimension) {
+            throw new IllegalArgumentException("subspaces must be in [1, " + dimension + "], got " + subspaces);
+        }
+    }
+
+    /**
+     * A random sample of n distinct positions out of size, with a partial Fisher-Yates shuffle.
+     */
+    private static int[] sample(int size, int n, Random random) {
+        var positions = IntStream.range(0, size).toArray();
+        for (var i = 0; i < n; i++) {
+            var j = i + random.nextInt(size - i);
+            var tmp = positions[i];
+            positions[i] = positions[j];
+            positions[j] = tmp;
+        }
+        return Arrays.copyOf(positions, n);
+    }
+
+    /**
+     * Lloyd's k-means of subspace m over the sample. Centroids start at distinct sample points,
+     * and centroids that lose all their points are moved to a random sample point.
+     */
+    private void train(VectorStore vectors, int m, int[] sample, Random random, Kernel kernel) {
+        if (sample.length == 0) {
+            // Nothing to train on: an empty store keeps a single zero centroid.
+            return;
+        }
+        var data = vectors.data();
+        var from = bounds[m];
+        var width = width(m);
+        for (var c = 0; c < centroids; c++) {
+            System.arraycopy(data, vectors.offset(sample[c % sample.length]) + from, codebooks, centroid(m, c), width);
+        }
+
+        var assignments = new int[sample.length];
+        var sums = new float[centroids * width];
+        var counts = new int[centroids];
+        for (var iteration = 0; iteration < ITERATIONS; iteration++) {
+            var changed = false;
+            for (var s = 0; s < sample.length; s++) {
+                var nearest = nearest(data, vectors.offset(sample[s]), m, kernel);
+                changed |= iteration == 0 || nearest != assignments[s];
+                assignments[s] = nearest;
+            }
+            if (!changed) {
+                break;
+            }
+
+            Arrays.fill(sums, 0.0f);
+            Arrays.fill(counts, 0);
+            for (var s = 0; s < sample.length; s++) {
+                var offset = vectors.offset(sample[s]) + from;
+                var c = assignments[s];
+                counts[c]++;
+                for (var j = 0; j < width; j++) {
+                    sums[c * width + j] += data[offset + j];
+                }
+            }
+            for (var c = 0; c < centroids; c++) {
+                var centroid = centroid(m, c);
+                if (counts[c] == 0) {
+                    var offset = vectors.offset(sample[random.nextInt(sample.length)]) + from;
+                    System.arraycopy(data, offset, codebooks, centroid, width);
+                    continue;
+                }
+                for (var j = 0; j < width; j++) {
+                    codebooks[centroid + j] = sums[c * width + j] / counts[c];
+                }
+            }
+        }
+    }
+
+    /**
+     * Index of the centroid of subspace m closest to the vector at offset of data.
+     */
+    private int nearest(float[] data, int offset, int m, Kernel kernel) {
+        var width = width(m);
+        var best = 0;
+        var bestDistance = Float.POSITIVE_INFINITY;
+        for (var c = 0; c < centroids; c++) {
+            var distance = kernel.squaredDistance(codebooks, centroid(m, c), data, offset + bounds[m], width);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private int centroid(int m, int c) {
+        return centroids * bounds[m] + c * width(m);
+    }
+
+    private int width(int m) {
+        return bounds[m + 1] - bounds[m];
+    }
+
+    private int code(int i, int m) {
+        return codes[i * subspaces + m] & 0xFF;
+    }
+
+    /**
+     * Number of floats of an ADC lookup table.
+     *
+     * @return
+     */
+    public int tableSize() {
+        return subspaces * centroids;
+    }
+
+    /**
+     * Fill the ADC lookup table of query: the squared distance, or the dot product if the metric
+     * {@link Metric#usesDotProduct() uses it}, of each query subvector and each centroid of its subspace.
+     *
+     * @param query
+     * @param metric
+     * @param kernel
+     * @param table at least {@link #tableSize()} floats
+     * @return table
+     */
+    public float[] table(float[] query, Metric metric, Kernel kernel, float[] table) {
+        var dot = metric.usesDotProduct();
+        for (var m = 0; m < subspaces; m++) {
+            var width = width(m);
+            for (var c = 0; c < centroids; c++) {
+                table[m * centroids + c] = dot
+                        ? kernel.dot(codebooks, centroid(m, c), query, bounds[m], width)
+                        : kernel.squaredDistance(codebooks, centroid(m, c), query, bounds[m], width);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Ranking distance of the vector at position i, from the lookup table of a query.
+     *
+     * @param i
+     * @param table
+     * @param metric the metric the table was built with
+     * @return
+     */
+    public float distance(int i, float[] table, Metric metric) {
+        var offset = Objects.checkIndex(i, size) * subspaces;
+        var sum = 0.0f;
+        for (var m = 0; m < subspaces; m++) {
+            sum += table[m * centroids + (codes[offset + m] & 0xFF)];
+        }
+        return metric.usesDotProduct() ? metric.fromDotProduct(sum) : sum;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Get the decoded vector at position i.
+     *
+     * @param i
+     * @return
+     */
+    @Override
+    public float[] get(int i) {
+        var vector = new float[dimension];
+        get(i, vector);
+        return vector;
+    }
+
+    @Override
+    public void get(int i, float[] into) {
+        Objects.checkIndex(i, size);
+        for (var m = 0; m < subspaces; m++) {
+            System.arraycopy(codebooks, centroid(m, code(i, m)), into, bounds[m], width(m));
+        }
+    }
+
+    @Override
+    public float dot(int i, float[] vector, Kernel kernel) {
+        Objects.checkIndex(i, size);
+        var sum = 0.0f;
+        for (var m = 0; m < subspaces; m++) {
+            sum += kernel.dot(codebooks, centroid(m, code(i, m)), vector, bounds[m], width(m));
+        }
+        return sum;
+    }
+
+    @Override
+    public float squaredDistance(int i, float[] vector, Kernel kernel) {
+        Objects.checkIndex(i, size);
+        var sum = 0.0f;
+        for (var m = 0; m < subspaces; m++) {
+            sum += kernel.squaredDistance(codebooks, centroid(m, code(i, m)), vector, bounds[m], width(m));
+        }
+        return sum;
+    }
+
+    /**
+     * Copy the codes at the given positions into a new store, in order. Codebooks are shared.
+     *
+     * @param positions
+     * @return
+     */
+    public ProductQuantizedVectors select(int[] positions) {
+        var selected = new byte[positions.length * subspaces];
+        for (var i = 0; i < positions.length; i++) {
+            var offset = Objects.checkIndex(positions[i], size) * subspaces;
+            System.arraycopy(codes, offset, selected, i * subspaces, subspaces);
+        }
+        return new ProductQuantizedVectors(dimension, positions.length, subspaces, centroids, codebooks, selected);
+    }
+
+    public int subspaces() {
+        return subspaces;
+    }
+
+    public int centroids() {
+        return centroids;
+    }
+
+    /**
+     * The codebooks of all subspaces.
+     *
+     * @return
+     */
+    public float[] codebooks() {
+        return codebooks;
+    }
+
+    /**
+     * The backing codes. Only the first {@code size() * subspaces()} elements are valid.
+     *
+     * @return
+     */
+    public byte[] codes() {
+        return codes;
+    }
+}
@@ -1,28 +1,308 @@
 package io.github.gmodena.searchy.bsp;
 
-public class SIMDVector implements IVector<SIMDVector> {
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.io.Serializable;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static io.github.gmodena.searchy.bsp.MappedVectors.FLOAT;
+
+/**
+ * A vector backed by the JDK Vector API.
+ * <p>
+ * Arithmetic runs in loops of {@link FloatVector#SPECIES_PREFERRED} width,
+ * with a scalar tail for the elements that do not fill a whole lane.
+ * Requires the {@code jdk.incubator.vector} module at compile and run time.
+ */
+public class SIMDVector implements IVector<SIMDVector>, Serializable {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    // Bytes of the same shape as SPECIES. Each byte vector widens into PARTS float vectors.
+    private static final VectorSpecies<Byte> BYTE_SPECIES = VectorSpecies.of(byte.class, SPECIES.vectorShape());
+    private static final int PARTS = BYTE_SPECIES.length() / SPECIES.length();
+
+    public int length = 0;
+    private final float[] points;
+
+    /**
+     * Create a new vector with the given points.
+     *
+     * @param points
+     */
+    public SIMDVector(float[] points) {
+        this.points = Arrays.copyOf(points, points.length);
+        this.length = points.length;
+    }
+
+    /**
+     * Subtract vector that vector from this vector.
+     */
     @Override
-    public float distance(SIMDVector that) {
-        return 0;
+    public SIMDVector sub(SIMDVector that) {
+        if (this.length != that.length) {
+            return null;
+        }
+        float[] res = new float[length];
+        var i = 0;
+        var bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            var a = FloatVector.fromArray(SPECIES, this.points, i);
+            var b = FloatVector.fromArray(SPECIES, that.points, i);
+            a.sub(b).intoArray(res, i);
+        }
+        for (; i < length; i++) {
+            res[i] = this.points[i] - that.points[i];
+        }
+        return new SIMDVector(res);
+    }
+
+    /**
+     * Mean of two vectors
+     *
+     * @param that
+     * @return
+     */
+    @Override
+    public SIMDVector mean(SIMDVector that) {
+        if (this.length != that.length) {
+            return null;
+        }
+        float[] res = new float[length];
+        var i = 0;
+        var bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            var a = FloatVector.fromArray(SPECIES, this.points, i);
+            var b = FloatVector.fromArray(SPECIES, that.points, i);
+            a.add(b).div(2.0f).intoArray(res, i);
+        }
+        for (; i < length; i++) {
+            res[i] = (this.points[i] + that.points[i]) / 2.0f;
+        }
+        return new SIMDVector(res);
     }
 
+    /**
+     * Dot product of two vectors
+     *
+     * @param that
+     * @return
+     */
     @Override
     public float dot(SIMDVector that) {
-        return 0;
+        return dot(this.points, 0, that.points, 0, length);
     }
 
+    /**
+     * Distance between two vectors
+     *
+     * @param that
+     * @return
+     */
     @Override
-    public float[] raw() {
-        return new float[0];
+    public float distance(SIMDVector that) {
+        return (float) Math.sqrt(squaredDistance(this.points, 0, that.points, 0, length));
+    }
+
+    /**
+     * Dot product of {@code length} elements of a, starting at aOffset, and b, starting at bOffset.
+     *
+     * @param a
+     * @param aOffset
+     * @param b
+     * @param bOffset
+     * @param length
+     * @return
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        var acc = FloatVector.zero(SPECIES);
+        var i = 0;
+        var bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            var va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            var vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            acc = va.fma(vb, acc);
+        }
+        var sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Squared euclidean distance of {@code length} elements of a, starting at aOffset,
+     * and b, starting at bOffset.
+     *
+     * @param a
+     * @param aOffset
+     * @param b
+     * @param bOffset
+     * @param length
+     * @return
+     */
+    public static float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        var acc = FloatVector.zero(SPECIES);
+        var i = 0;
+        var bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            var va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            var vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            var diff = va.sub(vb);
+            acc = diff.fma(diff, acc);
+        }
+        var sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            var diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Dot product of {@code length} floats of a, starting at byte aOffset, and b, starting at bOffset.
+     *
+     * @param a
+     * @param aOffset
+     * @param b
+     * @param bOffset
+     * @param length
+     * @return
+     */
+    public static float dot(MemorySegment a, long aOffset, float[] b, int bOffset, int length) {
+        var acc = FloatVector.zero(SPECIES);
+        var i = 0;
+        var bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            var va = FloatVector.fromMemorySegment(SPECIES, a, aOffset + (long) i * Float.BYTES, ByteOrder.LITTLE_ENDIAN);
+            var vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            acc = va.fma(vb, acc);
+        }
+        var sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a.get(FLOAT, aOffset + (long) i * Float.BYTES) * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Squared euclidean distance of {@code length} floats of a, starting at byte aOffset,
+     * and b, starting at bOffset.
+     *
+     * @param a
+     * @param aOffset
+     * @param b
+     * @param bOffset
+     * @param length
+     * @return
+     */
+    public static float squaredDistance(MemorySegment a, long aOffset, float[] b, int bOffset, int length) {
+        var acc = FloatVector.zero(SPECIES);
+        var i = 0;
+        var bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            var va = FloatVector.fromMemorySegment(SPECIES, a, aOffset + (long) i * Float.BYTES, ByteOrder.LITTLE_ENDIAN);
+            var vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            var diff = va.sub(vb);
+            acc = diff.fma(diff, acc);
+        }
+        var sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            var diff = a.get(FLOAT, aOffset + (long) i * Float.BYTES) - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Dot product of {@code length} int8 codes of a, starting at aOffset, and b.
+     * Element j of a decodes to {@code offsets[j] + code * scales[j]}. See {@link QuantizedVectors}.
+     * Codes are loaded a full byte vector at a time, and widened to floats one lane block at a time.
+     *
+     * @param a
+     * @param aOffset
+     * @param offsets
+     * @param scales
+     * @param b
+     * @param length
+     * @return
+     */
+    public static float dot(byte[] a, int aOffset, float[] offsets, float[] scales, float[] b, int length) {
+        var acc = FloatVector.zero(SPECIES);
+        var i = 0;
+        var bound = BYTE_SPECIES.loopBound(length);
+        for (; i < bound; i += BYTE_SPECIES.length()) {
+            var codes = ByteVector.fromArray(BYTE_SPECIES, a, aOffset + i);
+            for (var part = 0; part < PARTS; part++) {
+                var j = i + part * SPECIES.length();
+                var vb = FloatVector.fromArray(SPECIES, b, j);
+                acc = decode(codes, part, offsets, scales, j).fma(vb, acc);
+            }
+        }
+        var sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += (offsets[i] + a[aOffset + i] * scales[i]) * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Squared euclidean distance of {@code length} int8 codes of a, starting at aOffset, and b.
+     * Element j of a decodes to {@code offsets[j] + code * scales[j]}. See {@link QuantizedVectors}.
+     *
+     * @param a
+     * @param aOffset
+     * @param offsets
+     * @param scales
+     * @param b
+     * @param length
+     * @return
+     */
+    public static float squaredDistance(byte[] a, int aOffset, float[] offsets, float[] scales, float[] b, int length) {
+        var acc = FloatVector.zero(SPECIES);
+        var i = 0;
+        var bound = BYTE_SPECIES.loopBound(length);
+        for (; i < bound; i += BYTE_SPECIES.length()) {
+            var codes = ByteVector.fromArray(BYTE_SPECIES, a, aOffset + i);
+            for (var part = 0; part < PARTS; part++) {
+                var j = i + part * SPECIES.length();
+                var diff = decode(codes, part, offsets, scales, j).sub(FloatVector.fromArray(SPECIES, b, j));
+                acc = diff.fma(diff, acc);
+            }
+        }
+        var sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            var diff = offsets[i] + a[aOffset + i] * scales[i] - b[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private static FloatVector decode(ByteVector codes, int part, float[] offsets, float[] scales, int j) {
+        var widened = (FloatVector) codes.convertShape(VectorOperators.B2F, SPECIES, part);
+        return widened.fma(FloatVector.fromArray(SPECIES, scales, j), FloatVector.fromArray(SPECIES, offsets, j));
     }
 
+    /**
+     * Raw points of the vector
+     *
+     * @return
+     */
     @Override
-    public SIMDVector sub(SIMDVector that) {
-        return null;
+    public float[] raw() {
+        return Arrays.copyOf(points, points.length);
     }
 
+    /**
+     * Hash code of the vector
+     *
+     * @return
+     */
     @Override
-    public SIMDVector mean(SIMDVector that) {
-        return null;
+    public int hashCode() {
+        return Arrays.hashCode(points);
     }
 }
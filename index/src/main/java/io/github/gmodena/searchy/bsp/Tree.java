@@ -0,0 +1,71 @@
+package io.github.gmodena.searchy.bsp;
+
+/**
+ * A binary space partitioning tree encoded with integer node references.
+ * <p>
+ * A non-negative reference addresses an inner node. A negative reference {@code r}
+ * addresses the leaf {@code ~r}. Inner nodes have a hyperplane and two children;
+ * leaves hold a range of positions in a {@link Vectors} collection.
+ */
+public interface Tree {
+    /**
+     * Reference to the root node.
+     *
+     * @return
+     */
+    int root();
+
+    /**
+     * Check if a node reference addresses a leaf.
+     *
+     * @param node
+     * @return
+     */
+    static boolean isLeaf(int node) {
+        return node < 0;
+    }
+
+    /**
+     * Reference to the child below the hyperplane of an inner node.
+     *
+     * @param node
+     * @return
+     */
+    int left(int node);
+
+    /**
+     * Reference to the child above the hyperplane of an inner node.
+     *
+     * @param node
+     * @return
+     */
+    int right(int node);
+
+    /**
+     * Signed margin of vector from the hyperplane of an inner node.
+     * Vectors with a non-negative margin are above the hyperplane.
+     *
+     * @param node
+     * @param vector
+     * @param kernel
+     * @return
+     */
+    float margin(int node, float[] vector, Kernel kernel);
+
+    /**
+     * Number of positions in a leaf.
+     *
+     * @param node
+     * @return
+     */
+    int leafSize(int node);
+
+    /**
+     * The i-th position in a leaf.
+     *
+     * @param node
+     * @param i
+     * @return
+     */
+    int leafId(int node, int i);
+}
@@ -0,0 +1,302 @@
+package io.github.gmodena.searchy.bsp;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * A contiguous, row-major store of fixed dimension vectors.
+ * <p>
+ * All vectors live in a single {@code float[]} slab. The i-th vector starts at
+ * {@link #offset(int)} and spans {@link #dimension()} elements. Distance computations
+ * run directly against the slab (see {@link Kernel}), so no per-vector objects are allocated.
+ * <p>
+ * The store is append-only. Like the rest of the bsp package it is light on defensive programming:
+ * {@link #data()} exposes the backing array by reference.
+ * <p>
+ * A single writer may add vectors while others read. The slab and the size are volatile: a grown slab is
+ * fully copied before it is published, and a vector is fully written before the size that includes it.
+ */
+public final class VectorStore implements Vectors, Serializable {
+    private static final int DEFAULT_CAPACITY = 16;
+    // Largest array length that the JVM reliably allocates.
+    private static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+    // Vectors per shard when deduplicating in parallel.
+    private static final int SHARD_SIZE = 1 << 14;
+    private static final int MAX_SHARD_BITS = 6;
+
+    private final int dimension;
+    private volatile float[] data;
+    private volatile int size;
+
+    /**
+     * Create an empty store for vectors of the given dimension.
+     *
+     * @param dimension
+     */
+    public VectorStore(int dimension) {
+        this(dimension, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty store for vectors of the given dimension, with room for capacity vectors.
+     *
+     * @param dimension
+     * @param capacity
+     */
+    public VectorStore(int dimension, int capacity) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("dimension must be positive");
+        }
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.dimension = dimension;
+        this.data = new float[checkedLength(capacity)];
+        this.size = 0;
+    }
+
+    /**
+     * Append a copy of vector to the store.
+     *
+     * @param vector
+     * @return the position of the vector in the store
+     */
+    public int add(float[] vector) {
+        Objects.requireNonNull(vector, "vector must not be null");
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected a vector of dimension " + dimension + ", got " + vector.length);
+        }
+        var position = size;
+        ensureCapacity(position + 1);
+        System.arraycopy(vector, 0, data, position * dimension, dimension);
+        size = position + 1;
+        return position;
+    }
+
+    @Override
+    public float[] get(int i) {
+        var offset = offset(i);
+        return Arrays.copyOfRange(data, offset, offset + dimension);
+    }
+
+    @Override
+    public void get(int i, float[] into) {
+        System.arraycopy(data, offset(i), into, 0, dimension);
+    }
+
+    @Override
+    public float dot(int i, float[] vector, Kernel kernel) {
+        return kernel.dot(data, offset(i), vector, 0, dimension);
+    }
+
+    @Override
+    public float squaredDistance(int i, float[] vector, Kernel kernel) {
+        return kernel.squaredDistance(data, offset(i), vector, 0, dimension);
+    }
+
+    /**
+     * Offset of the vector at position i in {@link #data()}.
+     *
+     * @param i
+     * @return
+     */
+    public int offset(int i) {
+        Objects.checkIndex(i, size);
+        return i * dimension;
+    }
+
+    /**
+     * The backing slab. Only the first {@code size() * dimension()} elements are valid.
+     *
+     * @return
+     */
+    public float[] data() {
+        return data;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Hash code of the vector at position i. Consistent with {@link Arrays#hashCode(float[])}.
+     *
+     * @param i
+     * @return
+     */
+    public int hashCode(int i) {
+        var offset = offset(i);
+        var result = 1;
+        for (var j = offset; j < offset + dimension; j++) {
+            result = 31 * result + Float.floatToIntBits(data[j]);
+        }
+        return result;
+    }
+
+    /**
+     * Whether the vectors at positions i and j have the same contents. Consistent with {@link Arrays#equals(float[], float[])}.
+     *
+     * @param i
+     * @param j
+     * @return
+     */
+    public boolean contentEquals(int i, int j) {
+        var a = offset(i);
+        var b = offset(j);
+        for (var k = 0; k < dimension; k++) {
+            if (Float.floatToIntBits(data[a + k]) != Float.floatToIntBits(data[b + k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * For each position, the first position holding a vector with the same contents.
+     * A position is its own survivor if no earlier vector is equal to it.
+     * <p>
+     * Positions are hashed into open addressing tables of positions, and equal hashes are confirmed
+     * with {@link #contentEquals(int, int)}. Large stores are sharded by hash and the shards are deduplicated in parallel.
+     *
+     * @return
+     */
+    public int[] survivors() {
+        var hashes = new int[size];
+        IntStream.range(0, size).parallel().forEach(i -> hashes[i] = mix(hashCode(i)));
+
+        // A power of two number of shards, picked by the top bits of the hash.
+        var bits = size < SHARD_SIZE ? 0 : Math.min(MAX_SHARD_BITS, 31 - Integer.numberOfLeadingZeros(size / SHARD_SIZE));
+        var shards = 1 << bits;
+        var offsets = new int[shards + 1];
+        for (var hash : hashes) {
+            offsets[shard(hash, bits) + 1]++;
+        }
+        for (var s = 0; s < shards; s++) {
+            offsets[s + 1] += offsets[s];
+        }
+        // Positions grouped by shard, in ascending order within a shard.
+        var order = new int[size];
+        var next = Arrays.copyOf(offsets, shards);
+        for (var i = 0; i < size; i++) {
+            order[next[shard(hashes[i], bits)]++] = i;
+        }
+
+        var survivors = new int[size];
+        IntStream.range(0, shards).parallel().forEach(s -> {
+            var count = offsets[s + 1] - offsets[s];
+            var mask = Math.max(2, Integer.highestOneBit(Math.max(1, count)) << 2) - 1;
+            var table = new int[mask + 1];
+            Arrays.fill(table, -1);
+            for (var k = offsets[s]; k < offsets[s + 1]; k++) {
+                var i = order[k];
+                var slot = hashes[i] & mask;
+                while (true) {
+                    var j = table[slot];
+                    if (j < 0) {
+                        table[slot] = i;
+                        survivors[i] = i;
+                        break;
+                    }
+                    if (hashes[j] == hashes[i] && contentEquals(i, j)) {
+                        survivors[i] = j;
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+            }
+        });
+        return survivors;
+    }
+
+    private static int shard(int hash, int bits) {
+        return bits == 0 ? 0 : hash >>> (Integer.SIZE - bits);
+    }
+
+    /**
+     * Spread the bits of a hash code, so that both its low and high bits can index tables.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Replace the vector at position i.
+     *
+     * @param i
+     * @param vector
+     * @throws IllegalArgumentException if the vector does not match the dimension of the store
+     */
+    public void set(int i, float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected a vector of dimension " + dimension + ", got " + vector.length);
+        }
+        System.arraycopy(vector, 0, data, offset(i), dimension);
+    }
+
+    /**
+     * Copy the vectors at the given positions into a new store, in order.
+     *
+     * @param positions
+     * @return
+     */
+    public VectorStore select(int[] positions) {
+        var selected = new VectorStore(dimension, positions.length);
+        for (var position : positions) {
+            System.arraycopy(data, offset(position), selected.data, selected.size++ * dimension, dimension);
+        }
+        return selected;
+    }
+
+    /**
+     * Shrink the backing slab to the number of stored vectors.
+     */
+    public void trimToSize() {
+        if (data.length > size * dimension) {
+            data = Arrays.copyOf(data, size * dimension);
+        }
+    }
+
+    /**
+     * Make room for at least capacity vectors, so that adding up to capacity vectors does not copy the slab.
+     *
+     * @param capacity
+     */
+    public void reserve(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        if (capacity * (long) dimension > data.length) {
+            data = Arrays.copyOf(data, checkedLength(capacity));
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity * (long) dimension <= data.length) {
+            return;
+        }
+        var current = data.length / dimension;
+        // Grow by half, but not past the largest capacity that fits in an array. Only capacity itself may not fit.
+        var grown = (int) Math.min(current + (long) (current >> 1), MAX_LENGTH / dimension);
+        data = Arrays.copyOf(data, checkedLength(Math.max(capacity, grown)));
+    }
+
+    private int checkedLength(int capacity) {
+        var length = capacity * (long) dimension;
+        if (length > MAX_LENGTH) {
+            throw new IllegalStateException("VectorStore capacity exceeded: " + capacity + " vectors of dimension " + dimension);
+        }
+        return (int) length;
+    }
+}
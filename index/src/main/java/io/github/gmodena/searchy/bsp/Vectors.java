@@ -0,0 +1,71 @@
+package io.github.gmodena.searchy.bsp;
+
+/**
+ * A read-only view over a collection of fixed dimension vectors, addressed by position.
+ * <p>
+ * Implementations compute distances in place, against their own storage,
+ * so that callers never need to materialize a vector to score it.
+ */
+public interface Vectors {
+    /**
+     * Number of vectors.
+     *
+     * @return
+     */
+    int size();
+
+    /**
+     * Dimension of the vectors.
+     *
+     * @return
+     */
+    int dimension();
+
+    /**
+     * Get a copy of the vector at position i.
+     *
+     * @param i
+     * @return
+     */
+    float[] get(int i);
+
+    /**
+     * Copy the vector at position i into the first dimension elements of into.
+     *
+     * @param i
+     * @param into
+     */
+    void get(int i, float[] into);
+
+    /**
+     * Dot product of the vector at position i and vector.
+     *
+     * @param i
+     * @param vector
+     * @param kernel
+     * @return
+     */
+    float dot(int i, float[] vector, Kernel kernel);
+
+    /**
+     * Squared euclidean distance between the vector at position i and vector.
+     *
+     * @param i
+     * @param vector
+     * @param kernel
+     * @return
+     */
+    float squaredDistance(int i, float[] vector, Kernel kernel);
+
+    /**
+     * Euclidean distance between the vector at position i and vector.
+     *
+     * @param i
+     * @param vector
+     * @param kernel
+     * @return
+     */
+    default float distance(int i, float[] vector, Kernel kernel) {
+        return (float) Math.sqrt(squaredDistance(i, vector, kernel));
+    }
+}
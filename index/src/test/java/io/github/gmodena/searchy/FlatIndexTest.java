@@ -0,0 +1,102 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.Metric;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FlatIndexTest {
+    private static final int dimension = 8;
+    private static final int k = 10;
+
+    private List<float[]> vectors;
+    private List<float[]> queries;
+
+    @BeforeEach
+    void setUp() {
+        var random = new Random(23);
+        vectors = TestVectors.random(random, 40000, dimension, -1.0f, 1.0f);
+        queries = TestVectors.random(random, 40, dimension, -1.0f, 1.0f);
+    }
+
+    private List<Integer> bruteForce(float[] query) {
+        return IntStream.range(0, vectors.size()).boxed()
+                .sorted(Comparator.comparingDouble(i -> squaredDistance(vectors.get(i), query)))
+                .limit(k)
+                .toList();
+    }
+
+    private static double squaredDistance(float[] a, float[] b) {
+        var sum = 0.0;
+        for (int j = 0; j < a.length; j++) {
+            sum += (a[j] - b[j]) * (a[j] - b[j]);
+        }
+        return sum;
+    }
+
+    private static List<Integer> ids(List<Candidate> candidates) {
+        return candidates.stream().map(Candidate::id).toList();
+    }
+
+    @Test
+    void testQueryIsExact() {
+        var index = new FlatIndex.Builder().add(vectors).build();
+
+        for (var query : queries.subList(0, 5)) {
+            var result = index.query(query, k);
+            assertEquals(bruteForce(query), ids(result));
+            assertEquals(Math.sqrt(squaredDistance(vectors.get(result.get(0).id()), query)), result.get(0).distance(), 1e-5);
+        }
+    }
+
+    @Test
+    void testBatchMatchesSingleQueries() {
+        var index = new FlatIndex.Builder().withSIMD(true).add(vectors).build();
+
+        var batch = index.queryBatch(queries, k);
+
+        assertEquals(queries.size(), batch.size());
+        for (int q = 0; q < queries.size(); q++) {
+            assertEquals(ids(index.query(queries.get(q), k)), ids(batch.get(q)));
+        }
+    }
+
+    @Test
+    void testIdsAndMetric() {
+        var ids = IntStream.range(0, vectors.size()).map(i -> 1000 + i).boxed().toList();
+        var index = new FlatIndex.Builder().withMetric(Metric.COSINE).add(vectors, ids).build();
+
+        var result = index.query(vectors.get(7), 1);
+
+        assertEquals(1007, (int) result.get(0).id());
+        assertEquals(0.0f, result.get(0).distance(), 1e-6);
+    }
+
+    @Test
+    void testRecallOfIndexAgainstFlatIndex() {
+        var flat = new FlatIndex.Builder().add(vectors).build();
+        var index = new Index.Builder().withNumTrees(4).withMaxNodeSize(16).withRandomSeed(42L).add(vectors).build();
+
+        for (var query : queries.subList(0, 5)) {
+            // Scoring every vector makes the approximate search exact.
+            assertEquals(ids(flat.query(query, k)), ids(index.query(query, k, vectors.size())));
+        }
+    }
+
+    @Test
+    void testRejectsWrongDimension() {
+        var index = new FlatIndex.Builder().add(vectors.subList(0, 10)).build();
+
+        assertThrows(IllegalArgumentException.class, () -> index.query(new float[dimension + 1], k));
+        assertThrows(IllegalArgumentException.class, () -> index.queryBatch(List.of(new float[dimension + 1]), k));
+        assertThrows(IllegalArgumentException.class, () -> index.query(queries.get(0), -1));
+        assertThrows(IllegalStateException.class, () -> new FlatIndex.Builder().build());
+    }
+}
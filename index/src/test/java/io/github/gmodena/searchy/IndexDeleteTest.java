@@ -0,0 +1,207 @@
+package io.github.gmodena.searchy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexDeleteTest {
+    private static final int dimension = 5;
+
+    @TempDir
+    Path tempDir;
+
+    private List<float[]> vectors;
+    private List<Integer> ids;
+
+    @BeforeEach
+    void setUp() {
+        vectors = TestVectors.random(new Random(13), 300, dimension);
+        ids = IntStream.range(0, vectors.size()).boxed().toList();
+    }
+
+    private Index.Builder builder() {
+        return new Index.Builder()
+                .withNumTrees(3)
+                .withMaxNodeSize(8)
+                .withRandomSeed(42L)
+                .add(vectors, ids);
+    }
+
+    private static List<Integer> even(int size) {
+        var even = new ArrayList<Integer>();
+        for (int i = 0; i < size; i += 2) {
+            even.add(i);
+        }
+        return even;
+    }
+
+    @Test
+    void testDeletedVectorsAreNotReturned() {
+        var index = builder().build();
+
+        assertTrue(index.delete(5));
+        assertFalse(index.delete(5));
+        assertFalse(index.delete(1000));
+
+        var result = index.query(vectors.get(5), 10, vectors.size());
+        assertEquals(10, result.size());
+        assertTrue(result.stream().noneMatch(candidate -> candidate.id() == 5));
+        var neighbors = index.queryNeighbors(vectors.get(5), vectors.size());
+        assertEquals(vectors.size() - 1, neighbors.size());
+    }
+
+    @Test
+    void testDeleteAllPositionsOfAnId() {
+        var index = builder().add(new float[]{-1.0f, -1.0f, -1.0f, -1.0f, -1.0f}, 3).build();
+        assertTrue(index.delete(10));
+
+        // Added after the first delete, so the id lookup must include it.
+        var vector = new float[]{2.0f, 2.0f, 2.0f, 2.0f, 2.0f};
+        index.add(vector, 3);
+
+        assertEquals(3, index.delete(List.of(3, 1000)));
+        var all = index.query(vector, vectors.size() + 2, vectors.size() + 2);
+        assertEquals(vectors.size() - 2, all.size());
+        assertTrue(all.stream().noneMatch(candidate -> candidate.id() == 3));
+    }
+
+    @Test
+    void testCompact() {
+        var index = builder().build();
+        assertEquals(150, index.delete(even(vectors.size())));
+        assertEquals(0.5, index.deletedFraction());
+
+        index.compact();
+
+        assertEquals(0.0, index.deletedFraction());
+        assertEquals(150, index.getVectorIds().size());
+        assertEquals(150, index.getVectors().size());
+        for (int i = 1; i < vectors.size(); i += 10) {
+            var result = index.query(vectors.get(i), 1, vectors.size());
+            assertEquals(i, (int) result.get(0).id());
+            assertEquals(0.0f, result.get(0).distance());
+        }
+        var all = index.query(vectors.get(0), vectors.size(), vectors.size());
+        assertEquals(150, all.size());
+        assertTrue(all.stream().allMatch(candidate -> candidate.id() % 2 == 1));
+    }
+
+    @Test
+    void testInsertAfterCompact() {
+        var index = builder().build();
+        index.delete(even(vectors.size()));
+        index.compact();
+
+        var vector = new float[]{2.0f, 2.0f, 2.0f, 2.0f, 2.0f};
+        index.add(vector, 1000);
+        index.delete(1);
+
+        assertEquals(1000, (int) index.query(vector, 1, vectors.size()).get(0).id());
+        assertEquals(150, index.query(vector, vectors.size(), vectors.size()).size());
+    }
+
+    @Test
+    void testCompactQuantized() {
+        var index = builder().withQuantization(true).withRerank(4).build();
+        index.delete(even(vectors.size()));
+        index.compact();
+
+        var result = index.query(vectors.get(33), 1, vectors.size());
+        assertEquals(33, (int) result.get(0).id());
+        assertEquals(0.0f, result.get(0).distance());
+    }
+
+    @Test
+    void testCompactionThreshold() {
+        var tasks = new ArrayList<Runnable>();
+        Executor deferred = tasks::add;
+        var index = builder().withCompactionThreshold(0.25, deferred).build();
+        index.delete(even(vectors.size()));
+        index.delete(1);
+
+        assertEquals(1, tasks.size());
+        tasks.forEach(Runnable::run);
+
+        assertEquals(0.0, index.deletedFraction());
+        assertEquals(149, index.getVectorIds().size());
+        assertTrue(index.getCompactionFailure().isEmpty());
+    }
+
+    @Test
+    void testCompactionFailureIsKept() {
+        Executor rejecting = task -> {
+            throw new RejectedExecutionException("shut down");
+        };
+        var index = builder().withCompactionThreshold(0.25, rejecting).build();
+        index.delete(even(vectors.size()));
+
+        assertInstanceOf(RejectedExecutionException.class, index.getCompactionFailure().orElseThrow());
+        assertEquals(0.5, index.deletedFraction());
+    }
+
+    @Test
+    void testQueriesDuringCompaction() throws Exception {
+        var index = builder().build();
+        var done = new AtomicBoolean(false);
+        var failure = new AtomicReference<Throwable>();
+        var reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    var result = index.query(vectors.get(3), 1, vectors.size());
+                    assertEquals(3, (int) result.get(0).id());
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        index.delete(even(vectors.size()));
+        index.compactAsync(ForkJoinPool.commonPool()).join();
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get());
+    }
+
+    @Test
+    void testWriteCompactsDeletes() throws IOException {
+        var index = builder().build();
+        index.delete(even(vectors.size()));
+        var path = tempDir.resolve("index.bin");
+        index.write(path);
+        var mapped = Index.open(path);
+
+        // Only the file is compacted.
+        assertEquals(0.5, index.deletedFraction());
+        assertEquals(new HashSet<>(index.getVectorIds()), new HashSet<>(mapped.getVectorIds()));
+        assertEquals(7, (int) mapped.query(vectors.get(7), 1, vectors.size()).get(0).id());
+        assertTrue(mapped.delete(7));
+        assertThrows(UnsupportedOperationException.class, mapped::compact);
+    }
+
+    @Test
+    void testCompactionThresholdMustBeAFraction() {
+        assertThrows(IllegalArgumentException.class, () -> new Index.Builder().withCompactionThreshold(1.5));
+        assertThrows(NullPointerException.class, () -> new Index.Builder().withCompactionThreshold(0.5, null));
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.gmodena.searchy;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexEventsTest {
+    private static final String BUILD = "io.github.gmodena.searchy.IndexBuild";
+    private static final String TREE = "io.github.gmodena.searchy.TreeBuild";
+    private static final String SAVE = "io.github.gmodena.searchy.IndexSave";
+    private static final String LOAD = "io.github.gmodena.searchy.IndexLoad";
+    private static final String QUERY = "io.github.gmodena.searchy.Query";
+
+    @TempDir
+    Path tempDir;
+
+    private List<float[]> vectors;
+
+    @BeforeEach
+    void setUp() {
+        vectors = TestVectors.random(new Random(37), 500, 4);
+    }
+
+    private Index build() {
+        return new Index.Builder().withNumTrees(3).withMaxNodeSize(8).withRandomSeed(42L).add(vectors).build();
+    }
+
+    private List<RecordedEvent> events(Recording recording, String name) throws IOException {
+        var file = tempDir.resolve("events.jfr");
+        recording.dump(file);
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .toList();
+    }
+
+    @Test
+    void testBuildEvents() throws IOException {
+        try (var recording = new Recording()) {
+            recording.enable(BUILD);
+            recording.enable(TREE);
+            recording.start();
+            build();
+            recording.stop();
+
+            var builds = events(recording, BUILD);
+            assertEquals(1, builds.size());
+            assertEquals(500, builds.get(0).getInt("vectors"));
+            assertEquals(3, builds.get(0).getInt("trees"));
+
+            var trees = events(recording, TREE);
+            assertEquals(3, trees.size());
+            for (var tree : trees) {
+                assertTrue(tree.getInt("leaves") >= 500 / 8);
+                assertEquals(tree.getInt("leaves") - 1, tree.getInt("innerNodes"));
+                assertTrue(tree.getInt("depth") > 0);
+            }
+        }
+    }
+
+    @Test
+    void testSerializationEvents() throws IOException, ClassNotFoundException {
+        var index = build();
+        var fileName = tempDir.resolve("index.ser.gz").toString();
+        try (var recording = new Recording()) {
+            recording.enable(SAVE);
+            recording.enable(LOAD);
+            recording.start();
+            var bytes = IndexSerializer.serialize(index);
+            IndexSerializer.deserialize(bytes);
+            index.save(fileName);
+            IndexSerializer.deserialize(fileName);
+            recording.stop();
+
+            var saves = events(recording, SAVE);
+            assertEquals(2, saves.size());
+            assertNull(saves.get(0).getString("path"));
+            assertEquals(bytes.length, saves.get(0).getLong("bytes"));
+            assertEquals(fileName, saves.get(1).getString("path"));
+            assertTrue(saves.get(1).getLong("bytes") > 0);
+
+            var loads = events(recording, LOAD);
+            assertEquals(2, loads.size());
+            assertEquals(bytes.length, loads.get(0).getLong("bytes"));
+            assertEquals(saves.get(1).getLong("bytes"), loads.get(1).getLong("bytes"));
+        }
+    }
+
+    @Test
+    void testQueryEvents() throws IOException {
+        var index = build();
+        try (var recording = new Recording()) {
+            recording.enable(QUERY).withThreshold(Duration.ZERO);
+            recording.start();
+            index.query(vectors.get(0), 5);
+            index.query(vectors.get(1), 5, 50);
+            recording.stop();
+
+            var queries = events(recording, QUERY);
+            assertEquals(2, queries.size());
+            assertEquals(5, queries.get(0).getInt("k"));
+            assertEquals(0, queries.get(0).getInt("searchK"));
+            assertEquals(5, queries.get(0).getInt("results"));
+            assertTrue(queries.get(0).getInt("scored") >= 5);
+            assertEquals(50, queries.get(1).getInt("searchK"));
+        }
+    }
+
+    @Test
+    void testQueryThreshold() throws IOException {
+        var index = build();
+        try (var recording = new Recording()) {
+            recording.enable(QUERY).withThreshold(Duration.ofHours(1));
+            recording.start();
+            index.query(vectors.get(0), 5);
+            recording.stop();
+
+            assertTrue(events(recording, QUERY).isEmpty());
+        }
+    }
+}
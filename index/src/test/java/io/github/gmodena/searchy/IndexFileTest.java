@@ -0,0 +1,187 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.Metric;
+import io.github.gmodena.searchy.bsp.QuantizedVectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IndexFileTest {
+    private static final int numTrees = 3;
+    private static final int maxSize = 4;
+    private static final int dimension = 19;
+
+    @TempDir
+    Path tempDir;
+
+    private List<float[]> vectors;
+    private Index index;
+
+    @BeforeEach
+    void setUp() {
+        vectors = TestVectors.random(new Random(42), 200, dimension);
+        var ids = IntStream.range(1000, 1000 + vectors.size()).boxed().toList();
+        index = new Index.Builder()
+                .withNumTrees(numTrees)
+                .withMaxNodeSize(maxSize)
+                .withRandomSeed(42L)
+                .add(vectors, ids)
+                .build();
+    }
+
+    @Test
+    void testWriteAndOpen() throws IOException {
+        var path = tempDir.resolve("index.bin");
+        index.write(path);
+
+        var mapped = Index.open(path);
+
+        assertTrue(mapped.isMapped());
+        assertEquals(numTrees, (int) mapped.numTrees());
+        assertEquals(maxSize, (int) mapped.maxNodeSIze());
+        assertEquals(index.getVectorIds(), mapped.getVectorIds());
+        assertArrayEquals(vectors.get(7), mapped.getVector(7));
+        assertEquals(Metric.EUCLIDEAN, mapped.metric());
+    }
+
+    @Test
+    void testMetricIsWritten() throws IOException {
+        var cosine = new Index.Builder()
+                .withNumTrees(numTrees)
+                .withMaxNodeSize(maxSize)
+                .withMetric(Metric.COSINE)
+                .add(vectors)
+                .build();
+        var path = tempDir.resolve("cosine.bin");
+        cosine.write(path);
+        var mapped = Index.open(path);
+
+        assertEquals(Metric.COSINE, mapped.metric());
+        var result = mapped.query(vectors.get(3), 1);
+        assertEquals(0.0f, result.get(0).distance(), 1e-5f);
+    }
+
+    @Test
+    void testMappedQueryMatchesInMemory() throws IOException {
+        var path = tempDir.resolve("index.bin");
+        index.write(path);
+        var mapped = Index.open(path);
+
+        for (int i = 0; i < 10; i++) {
+            var query = vectors.get(i * 13);
+            var expected = sorted(index.query(query, 5));
+            var result = sorted(mapped.query(query, 5));
+
+            assertEquals(expected.size(), result.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j).id(), result.get(j).id());
+                assertEquals(expected.get(j).distance(), result.get(j).distance(), 1e-5);
+                assertArrayEquals(expected.get(j).vector(), result.get(j).vector());
+            }
+        }
+    }
+
+    @Test
+    void testOpenRejectsOtherFiles() throws IOException {
+        var path = tempDir.resolve("index.gz");
+        index.save(path.toString());
+
+        assertThrows(IOException.class, () -> Index.open(path));
+    }
+
+    @Test
+    void testOpenRejectsUnknownVersion() throws IOException {
+        var path = tempDir.resolve("index.bin");
+        index.write(path);
+        var bytes = Files.readAllBytes(path);
+        bytes[4] = (byte) (IndexFile.VERSION + 1);
+        Files.write(path, bytes);
+
+        assertThrows(IOException.class, () -> Index.open(path));
+    }
+
+    @Test
+    void testOpenRejectsUnknownKernel() throws IOException {
+        var path = tempDir.resolve("index.bin");
+        index.write(path);
+        var bytes = Files.readAllBytes(path);
+        bytes[12] = 99;
+        Files.write(path, bytes);
+
+        assertThrows(IOException.class, () -> Index.open(path));
+    }
+
+    @Test
+    void testOpenRejectsUnknownMetric() throws IOException {
+        var path = tempDir.resolve("index.bin");
+        index.write(path);
+        var bytes = Files.readAllBytes(path);
+        bytes[64] = 99;
+        Files.write(path, bytes);
+
+        assertThrows(IOException.class, () -> Index.open(path));
+    }
+
+    private static List<Candidate> sorted(List<Candidate> candidates) {
+        var result = new ArrayList<>(candidates);
+        result.sort(Comparator.comparingInt(Candidate::id));
+        return result;
+    }
+
+    @Test
+    void testQuantizedIndexKeepsFullVectorsMapped() throws IOException {
+        var quantized = new Index.Builder()
+                .withNumTrees(numTrees)
+                .withMaxNodeSize(maxSize)
+                .withQuantization(true)
+                .withRerank(3)
+                .add(vectors)
+                .build();
+        var path = tempDir.resolve("quantized.bin");
+        quantized.write(path);
+        var mapped = Index.open(path);
+
+        assertTrue(mapped.isMapped());
+        assertEquals(3, mapped.rerank());
+        assertArrayEquals(((QuantizedVectors) quantized.getQuantizedVectors()).codes(),
+                ((QuantizedVectors) mapped.getQuantizedVectors()).codes());
+        var query = vectors.get(42);
+        var expected = quantized.query(query, 5);
+        var result = mapped.query(query, 5);
+        assertEquals(expected.stream().map(Candidate::id).toList(), result.stream().map(Candidate::id).toList());
+        assertEquals(0.0f, result.get(0).distance());
+    }
+
+    @Test
+    void testProductQuantizedIndex() throws IOException {
+        var pq = new Index.Builder()
+                .withNumTrees(numTrees)
+                .withMaxNodeSize(maxSize)
+                .withRandomSeed(42L)
+                .withProductQuantization(4)
+                .add(vectors)
+                .build();
+        var path = tempDir.resolve("pq.bin");
+        pq.write(path);
+        var mapped = Index.open(path);
+
+        assertArrayEquals(pq.getVector(11), mapped.getVector(11));
+        var query = vectors.get(11);
+        assertEquals(pq.query(query, 5).stream().map(Candidate::id).toList(),
+                mapped.query(query, 5).stream().map(Candidate::id).toList());
+    }
+}
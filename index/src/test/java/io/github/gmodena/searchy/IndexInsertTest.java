@@ -0,0 +1,187 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.FlatTree;
+import io.github.gmodena.searchy.bsp.GrowableTree;
+import io.github.gmodena.searchy.bsp.Tree;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexInsertTest {
+    private static final int dimension = 5;
+    private static final int maxSize = 4;
+
+    @TempDir
+    Path tempDir;
+
+    private List<float[]> vectors;
+    private Index index;
+
+    @BeforeEach
+    void setUp() {
+        vectors = TestVectors.random(new Random(11), 400, dimension);
+        index = new Index.Builder()
+                .withNumTrees(3)
+                .withMaxNodeSize(maxSize)
+                .withRandomSeed(42L)
+                .add(vectors.subList(0, 20), range(0, 20))
+                .build();
+    }
+
+    private static List<Integer> range(int from, int to) {
+        var ids = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            ids.add(i);
+        }
+        return ids;
+    }
+
+    @Test
+    void testInsertedVectorsAreFound() {
+        for (int i = 20; i < vectors.size(); i++) {
+            index.add(vectors.get(i), i);
+        }
+
+        assertEquals(vectors.size(), index.getVectorIds().size());
+        for (int i = 0; i < vectors.size(); i += 7) {
+            var result = index.query(vectors.get(i), 1, vectors.size());
+            assertEquals(i, (int) result.get(0).id());
+            assertEquals(0.0f, result.get(0).distance());
+        }
+    }
+
+    @Test
+    void testTreesHoldEveryPositionOnce() {
+        for (int i = 20; i < vectors.size(); i++) {
+            index.add(vectors.get(i), i);
+        }
+
+        for (Tree tree : index.getTrees()) {
+            var flat = ((GrowableTree) tree).toFlatTree();
+            assertEquals(vectors.size(), flat.ids().length);
+            assertEquals(vectors.size(), Arrays.stream(flat.ids()).distinct().count());
+            for (int leaf = 0; leaf < flat.leafCount(); leaf++) {
+                assertTrue(flat.leafSize(~leaf) <= maxSize);
+            }
+        }
+    }
+
+    @Test
+    void testIdenticalInsertsDoNotSplitForever() {
+        for (int i = 0; i < 3 * maxSize; i++) {
+            index.add(vectors.get(0), 1000 + i);
+        }
+
+        var result = index.query(vectors.get(0), 3 * maxSize + 1, vectors.size());
+        assertEquals(3 * maxSize + 1, result.size());
+        assertEquals(0.0f, result.get(result.size() - 1).distance());
+    }
+
+    @Test
+    void testIdenticalInsertsGrowOneLeaf() {
+        var leaves = index.getTrees().stream()
+                .mapToInt(tree -> ((FlatTree) tree).leafCount())
+                .toArray();
+        for (int i = 0; i < 5000; i++) {
+            index.add(vectors.get(0), 1000 + i);
+        }
+
+        var trees = index.getTrees();
+        for (int t = 0; t < trees.size(); t++) {
+            var tree = (GrowableTree) trees.get(t);
+            var flat = tree.toFlatTree();
+            // Splitting off the vectors that differ adds a few leaves, the identical ones stay in one.
+            assertTrue(flat.leafCount() <= leaves[t] + 2 * maxSize, "leaves " + flat.leafCount());
+            assertEquals(flat.leafCount(), tree.leafCount());
+            assertEquals(20 + 5000, flat.ids().length);
+        }
+        assertEquals(5001, index.queryNeighbors(vectors.get(0), 5001).size());
+    }
+
+    @Test
+    void testQueriesDuringInserts() throws Exception {
+        var done = new AtomicBoolean(false);
+        var failure = new AtomicReference<Throwable>();
+        var reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    var result = index.query(vectors.get(3), 2);
+                    assertEquals(3, (int) result.get(0).id());
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        for (int i = 20; i < vectors.size(); i++) {
+            index.add(vectors.get(i), i);
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get());
+    }
+
+    @Test
+    void testWriteAfterInsert() throws IOException {
+        for (int i = 20; i < 100; i++) {
+            index.add(vectors.get(i), i);
+        }
+        var path = tempDir.resolve("index.bin");
+        index.write(path);
+        var mapped = Index.open(path);
+
+        var result = mapped.query(vectors.get(77), 1, 100);
+        assertEquals(77, (int) result.get(0).id());
+        assertThrows(UnsupportedOperationException.class, () -> mapped.add(vectors.get(0), 0));
+    }
+
+    @Test
+    void testWriteDuringInserts() throws Exception {
+        var failure = new AtomicReference<Throwable>();
+        var inserter = new Thread(() -> {
+            try {
+                for (int i = 20; i < vectors.size(); i++) {
+                    index.add(vectors.get(i), i);
+                    if (i % 3 == 0) {
+                        index.delete(i - 1);
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        inserter.start();
+        for (int w = 0; w < 10; w++) {
+            var path = tempDir.resolve("index-" + w + ".bin");
+            index.write(path);
+            var mapped = Index.open(path);
+
+            // Every vector in the file is reachable from its trees, and no tree points past the vectors.
+            var ids = mapped.getVectorIds();
+            assertEquals(ids.size(), mapped.queryNeighbors(vectors.get(0), vectors.size()).size());
+        }
+        inserter.join();
+
+        assertNull(failure.get());
+    }
+
+    @Test
+    void testInsertRejectsWrongDimension() {
+        assertThrows(IllegalArgumentException.class, () -> index.add(new float[dimension + 1], 0));
+    }
+}
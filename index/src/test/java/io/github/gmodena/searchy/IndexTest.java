@@ -1,10 +1,16 @@
 package io.github.gmodena.searchy;
 
-import io.github.gmodena.searchy.bsp.Node;
+import io.github.gmodena.searchy.bsp.FlatTree;
+import io.github.gmodena.searchy.bsp.Tree;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -28,19 +34,17 @@ class IndexTest {
         ids.add(3);
     }
 
-    private void assertTreeIsValid(Node tree) {
-        if (tree instanceof Node.InnerNode innerNode) {
-            assertNotNull(innerNode.vectorSpace());
-            assertNotNull(innerNode.leftNode());
-            assertNotNull(innerNode.rightNode());
-
-            assertTreeIsValid(innerNode.leftNode());
-            assertTreeIsValid(innerNode.rightNode());
-        } else if (tree instanceof Node.LeafNode leafNode) {
-            assertNotNull(leafNode.getIds());
-            assertTrue(leafNode.getIds().size() <= maxSize);
+    private void assertTreeIsValid(Tree tree, int node) {
+        if (Tree.isLeaf(node)) {
+            assertTrue(tree.leafSize(node) <= maxSize);
         } else {
-            fail("Unexpected node type");
+            var flatTree = (FlatTree) tree;
+            assertTrue(node < flatTree.innerCount());
+            assertTrue(flatTree.left(node) < flatTree.innerCount());
+            assertTrue(flatTree.right(node) < flatTree.innerCount());
+
+            assertTreeIsValid(tree, tree.left(node));
+            assertTreeIsValid(tree, tree.right(node));
         }
     }
 
@@ -54,8 +58,28 @@ class IndexTest {
 
         assertNotNull(index.getTrees());
 
-        for (Node tree : index.getTrees()) {
-            assertTreeIsValid(tree);
+        for (Tree tree : index.getTrees()) {
+            assertTreeIsValid(tree, tree.root());
+        }
+    }
+
+    @Test
+    void buildVectorSpace_shouldEncodeEveryVectorOnce() {
+        var builder = new Index.Builder()
+                .withNumTrees(numTrees)
+                .withMaxNodeSize(2)
+                .withRandomSeed(42L);
+        for (int i = 0; i < 100; i++) {
+            builder.add(new float[]{i, i % 7, i % 13}, i);
+        }
+        Index index = builder.build();
+
+        for (Tree tree : index.getTrees()) {
+            var flatTree = (FlatTree) tree;
+            assertTreeIsValid(tree, tree.root());
+            assertEquals(flatTree.innerCount() + 1, flatTree.leafCount());
+            assertEquals(100, flatTree.ids().length);
+            assertEquals(100, Arrays.stream(flatTree.ids()).distinct().count());
         }
     }
 
@@ -82,5 +106,66 @@ class IndexTest {
 
         // But keep the vector in the dataset.
         assertEquals(expectedVectorsSize, index.getVectors().size());
+        assertEquals(Map.of(duplicateVectorId, 1), index.getDuplicates());
+    }
+
+    @Test
+    void deduplicate_shouldKeepHashCollisions() {
+        // Two distinct vectors with the same Arrays.hashCode.
+        var a = new float[]{0f, 1f};
+        var b = new float[]{Float.intBitsToFloat(1), Float.intBitsToFloat(Float.floatToIntBits(1f) - 31)};
+        assertEquals(Arrays.hashCode(a), Arrays.hashCode(b));
+
+        Index index = new Index.Builder()
+                .withNumTrees(1)
+                .withMaxNodeSize(maxSize)
+                .add(List.of(a, b, a.clone()), List.of(10, 20, 30))
+                .build();
+
+        assertEquals(List.of(10, 20), index.getVectorIds());
+        assertEquals(Map.of(30, 10), index.getDuplicates());
+        assertArrayEquals(b, index.getVector(1));
+    }
+
+    @Test
+    void deduplicate_shouldMatchSequentialDeduplicationOnLargeBatches() {
+        var random = new Random(3);
+        var many = new ArrayList<float[]>();
+        for (int i = 0; i < 40000; i++) {
+            many.add(i % 4 == 3 ? many.get(random.nextInt(i)).clone() : new float[]{random.nextFloat(), random.nextFloat()});
+        }
+
+        Index index = new Index.Builder().withNumTrees(1).withMaxNodeSize(maxSize).add(many).build();
+
+        var seen = new HashMap<List<Float>, Integer>();
+        var expected = new ArrayList<Integer>();
+        for (int i = 0; i < many.size(); i++) {
+            var key = List.of(many.get(i)[0], many.get(i)[1]);
+            if (seen.putIfAbsent(key, i) == null) {
+                expected.add(i);
+            } else {
+                assertEquals(seen.get(key), index.getDuplicates().get(i));
+            }
+        }
+        assertEquals(expected, index.getVectorIds());
+        assertEquals(many.size() - expected.size(), index.getDuplicates().size());
+    }
+
+    @Test
+    void seededBuild_shouldBeReproducible() {
+        var random = new Random(9);
+        var many = new ArrayList<float[]>();
+        for (int i = 0; i < 2000; i++) {
+            many.add(new float[]{random.nextFloat(), random.nextFloat(), random.nextFloat()});
+        }
+        var first = new Index.Builder().withNumTrees(8).withMaxNodeSize(maxSize).withRandomSeed(1L).add(many).build();
+        var second = new Index.Builder().withNumTrees(8).withMaxNodeSize(maxSize).withRandomSeed(1L).add(many).build();
+
+        for (int t = 0; t < 8; t++) {
+            var a = (FlatTree) first.getTrees().get(t);
+            var b = (FlatTree) second.getTrees().get(t);
+            assertArrayEquals(a.ids(), b.ids());
+            assertArrayEquals(a.planes(), b.planes());
+        }
     }
 }
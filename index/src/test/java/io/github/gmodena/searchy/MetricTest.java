@@ -0,0 +1,115 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.JVector;
+import io.github.gmodena.searchy.bsp.Metric;
+import io.github.gmodena.searchy.bsp.VectorStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetricTest {
+    private static final int dimension = 8;
+    private List<float[]> vectors;
+
+    @BeforeEach
+    void setUp() {
+        vectors = TestVectors.random(new Random(7), 100, dimension, -1.0f, 1.0f);
+    }
+
+    private Index build(Metric metric) {
+        return new Index.Builder()
+                .withNumTrees(4)
+                .withMaxNodeSize(5)
+                .withRandomSeed(42L)
+                .withMetric(metric)
+                .add(vectors)
+                .build();
+    }
+
+    @Test
+    void testSquaredEuclideanIsSquareOfEuclidean() {
+        var query = vectors.get(11);
+        var euclidean = build(Metric.EUCLIDEAN).query(query, 5, vectors.size());
+        var squared = build(Metric.SQUARED_EUCLIDEAN).query(query, 5, vectors.size());
+
+        assertEquals(euclidean.size(), squared.size());
+        for (int i = 0; i < euclidean.size(); i++) {
+            assertEquals(euclidean.get(i).id(), squared.get(i).id());
+            var distance = euclidean.get(i).distance();
+            assertEquals(distance * distance, squared.get(i).distance(), 1e-4f);
+        }
+    }
+
+    @Test
+    void testCosineIgnoresMagnitude() {
+        var index = build(Metric.COSINE);
+        var query = vectors.get(20).clone();
+        for (int j = 0; j < dimension; j++) {
+            query[j] *= 10;
+        }
+
+        var result = index.query(query, 1);
+
+        assertEquals(20, (int) result.get(0).id());
+        assertEquals(0.0f, result.get(0).distance(), 1e-5f);
+        assertArrayEquals(Metric.normalize(vectors.get(20)), result.get(0).vector(), 1e-6f);
+    }
+
+    @Test
+    void testInnerProductMatchesBruteForce() {
+        var index = build(Metric.INNER_PRODUCT);
+        var query = vectors.get(5);
+        var expected = IntStream.range(0, vectors.size()).boxed()
+                .max(Comparator.comparingDouble(i -> new JVector(vectors.get(i)).dot(new JVector(query))))
+                .orElseThrow();
+
+        var result = index.query(query, 1, vectors.size());
+
+        assertEquals(expected, result.get(0).id());
+        assertEquals(-new JVector(vectors.get(expected)).dot(new JVector(query)), result.get(0).distance(), 1e-5f);
+    }
+
+    @Test
+    void testNormalize() {
+        var normalized = Metric.normalize(new float[]{3f, 4f});
+        assertArrayEquals(new float[]{0.6f, 0.8f}, normalized, 1e-6f);
+        assertArrayEquals(new float[]{0f, 0f}, Metric.normalize(new float[]{0f, 0f}));
+        assertTrue(Metric.COSINE.isAngular());
+    }
+
+    @Test
+    void testPrepareIntoBuffer() {
+        var query = new float[]{3f, 4f};
+        var buffer = new float[2];
+
+        assertSame(buffer, Metric.COSINE.prepare(query, buffer));
+        assertArrayEquals(new float[]{0.6f, 0.8f}, buffer, 1e-6f);
+        assertArrayEquals(new float[]{3f, 4f}, query);
+        assertSame(query, Metric.EUCLIDEAN.prepare(query, buffer));
+    }
+
+    @Test
+    void testPrepareStore() {
+        var store = new VectorStore(2);
+        store.add(new float[]{3f, 4f});
+        store.add(new float[]{0f, 0f});
+
+        Metric.EUCLIDEAN.prepare(store);
+        assertArrayEquals(new float[]{3f, 4f}, store.get(0));
+        Metric.COSINE.prepare(store);
+        assertArrayEquals(new float[]{0.6f, 0.8f}, store.get(0), 1e-6f);
+        assertArrayEquals(new float[]{0f, 0f}, store.get(1));
+        assertTrue(Metric.COSINE.preparesVectors());
+        assertFalse(Metric.INNER_PRODUCT.preparesVectors());
+    }
+}
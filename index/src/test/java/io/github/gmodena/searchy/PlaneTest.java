@@ -0,0 +1,108 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.FlatTree;
+import io.github.gmodena.searchy.bsp.Kernel;
+import io.github.gmodena.searchy.bsp.Metric;
+import io.github.gmodena.searchy.bsp.Plane;
+import io.github.gmodena.searchy.bsp.VectorStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlaneTest {
+    private static final int dimension = 4;
+    private static final int size = 4 * Plane.FORK_THRESHOLD;
+    private static final int maxSize = 10;
+
+    private VectorStore vectors;
+    private int[] positions;
+
+    @BeforeEach
+    void setUp() {
+        vectors = new VectorStore(dimension, size);
+        TestVectors.random(new Random(5), size, dimension).forEach(vectors::add);
+        positions = IntStream.range(0, size).toArray();
+    }
+
+    private FlatTree partition(long seed) {
+        return new Plane(vectors, positions, new Random(seed), Kernel.SCALAR, Metric.EUCLIDEAN).partition(maxSize);
+    }
+
+    @Test
+    void testForkedPartitionHoldsEveryPositionOnce() {
+        var tree = partition(42L);
+
+        var ids = tree.ids().clone();
+        Arrays.sort(ids);
+        assertArrayEquals(positions, ids);
+        for (int leaf = 0; leaf < tree.leafCount(); leaf++) {
+            assertTrue(tree.leafSize(~leaf) <= maxSize);
+        }
+        assertEquals(tree.leafCount() - 1, tree.innerCount());
+    }
+
+    @Test
+    void testForkedPartitionIsDeterministic() {
+        var first = partition(42L);
+        var second = partition(42L);
+
+        assertEquals(first.root(), second.root());
+        assertArrayEquals(first.ids(), second.ids());
+        assertArrayEquals(first.leafOffsets(), second.leafOffsets());
+        assertArrayEquals(first.lefts(), second.lefts());
+        assertArrayEquals(first.planes(), second.planes());
+    }
+
+    @Test
+    void testSplitStreamsAreReproducibleInParallel() {
+        var plane = new Plane(vectors, positions, new SplittableRandom(3L), Kernel.SCALAR, Metric.EUCLIDEAN);
+        var streams = new SplittableRandom(42L);
+        var randoms = IntStream.range(0, 8).mapToObj(i -> streams.split()).toList();
+        var parallel = IntStream.range(0, 8).parallel()
+                .mapToObj(i -> plane.partition(maxSize, randoms.get(i)))
+                .toList();
+
+        var again = new SplittableRandom(42L);
+        for (var tree : parallel) {
+            var sequential = plane.partition(maxSize, again.split());
+            assertArrayEquals(sequential.ids(), tree.ids());
+            assertArrayEquals(sequential.planes(), tree.planes());
+        }
+    }
+
+    @Test
+    void testLeavesAreOnTheSideOfTheirPlanes() {
+        var tree = partition(7L);
+
+        assertSide(tree, tree.root());
+    }
+
+    private void assertSide(FlatTree tree, int node) {
+        if (node < 0) {
+            return;
+        }
+        for (var child : new int[]{tree.left(node), tree.right(node)}) {
+            var above = child == tree.right(node);
+            for (var position : reachable(tree, child)) {
+                assertEquals(above, tree.margin(node, vectors.get(position), Kernel.SCALAR) >= 0.0f);
+            }
+            assertSide(tree, child);
+        }
+    }
+
+    private static int[] reachable(FlatTree tree, int node) {
+        if (node < 0) {
+            return IntStream.range(0, tree.leafSize(node)).map(i -> tree.leafId(node, i)).toArray();
+        }
+        return IntStream.concat(IntStream.of(reachable(tree, tree.left(node))),
+                IntStream.of(reachable(tree, tree.right(node)))).toArray();
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.Kernel;
+import io.github.gmodena.searchy.bsp.Metric;
+import io.github.gmodena.searchy.bsp.ProductQuantizedVectors;
+import io.github.gmodena.searchy.bsp.VectorStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProductQuantizedVectorsTest {
+    private static final int dimension = 18;
+    private List<float[]> vectors;
+    private VectorStore store;
+
+    @BeforeEach
+    void setUp() {
+        vectors = TestVectors.random(new Random(5), 1000, dimension);
+        store = new VectorStore(dimension);
+        vectors.forEach(store::add);
+    }
+
+    @Test
+    void testSmallStoresAreEncodedExactly() {
+        var small = new VectorStore(dimension);
+        for (int i = 0; i < 50; i++) {
+            small.add(vectors.get(i));
+        }
+        var pq = ProductQuantizedVectors.encode(small, 4, new Random(1), Kernel.SCALAR);
+
+        assertEquals(50, pq.centroids());
+        for (int i = 0; i < 50; i++) {
+            assertArrayEquals(vectors.get(i), pq.get(i));
+        }
+    }
+
+    @Test
+    void testTableDistancesMatchDecodedVectors() {
+        var pq = ProductQuantizedVectors.encode(store, 5, new Random(1), Kernel.SCALAR);
+        var query = vectors.get(3);
+        var squared = pq.table(query, Metric.SQUARED_EUCLIDEAN, Kernel.SCALAR, new float[pq.tableSize()]);
+        var dot = pq.table(query, Metric.INNER_PRODUCT, Kernel.SCALAR, new float[pq.tableSize()]);
+
+        for (int i = 0; i < 50; i++) {
+            var decoded = pq.get(i);
+            assertEquals(Kernel.SCALAR.squaredDistance(decoded, 0, query, 0, dimension),
+                    pq.distance(i, squared, Metric.SQUARED_EUCLIDEAN), 1e-4f);
+            assertEquals(pq.squaredDistance(i, query, Kernel.SCALAR), pq.distance(i, squared, Metric.EUCLIDEAN), 1e-4f);
+            assertEquals(-Kernel.SCALAR.dot(decoded, 0, query, 0, dimension),
+                    pq.distance(i, dot, Metric.INNER_PRODUCT), 1e-4f);
+        }
+    }
+
+    @Test
+    void testSubspacesMustFitDimension() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ProductQuantizedVectors.encode(store, dimension + 1, new Random(1), Kernel.SCALAR));
+    }
+
+    @Test
+    void testProductQuantizedIndexWithRerank() {
+        var exact = new Index.Builder()
+                .withNumTrees(3)
+                .withMaxNodeSize(20)
+                .add(vectors)
+                .build();
+        var pq = new Index.Builder()
+                .withNumTrees(3)
+                .withMaxNodeSize(20)
+                .withRandomSeed(42L)
+                .withProductQuantization(6)
+                .withRerank(20)
+                .add(vectors)
+                .build();
+
+        var query = vectors.get(500);
+        var expected = exact.query(query, 3, vectors.size());
+        var result = pq.query(query, 3, vectors.size());
+
+        assertEquals(500, (int) result.get(0).id());
+        assertEquals(0.0f, result.get(0).distance());
+        assertEquals(expected.stream().map(Candidate::id).toList(), result.stream().map(Candidate::id).toList());
+    }
+
+    @Test
+    void testScalarAndProductQuantizationAreExclusive() {
+        var builder = new Index.Builder()
+                .withNumTrees(1)
+                .withMaxNodeSize(20)
+                .withQuantization(true)
+                .withProductQuantization(2)
+                .add(vectors);
+        assertThrows(IllegalStateException.class, builder::build);
+    }
+}
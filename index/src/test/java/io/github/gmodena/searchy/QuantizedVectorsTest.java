@@ -0,0 +1,128 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.Kernel;
+import io.github.gmodena.searchy.bsp.QuantizedVectors;
+import io.github.gmodena.searchy.bsp.VectorStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuantizedVectorsTest {
+    private static final int dimension = 67;
+    private List<float[]> vectors;
+    private VectorStore store;
+
+    @BeforeEach
+    void setUp() {
+        vectors = TestVectors.random(new Random(3), 300, dimension, -5.0f, 5.0f);
+        store = new VectorStore(dimension);
+        vectors.forEach(store::add);
+    }
+
+    @Test
+    void testDecodeIsWithinHalfAScale() {
+        var quantized = QuantizedVectors.encode(store);
+        for (int i = 0; i < vectors.size(); i++) {
+            var decoded = quantized.get(i);
+            for (int j = 0; j < dimension; j++) {
+                assertTrue(Math.abs(vectors.get(i)[j] - decoded[j]) <= quantized.scales()[j] / 2 + 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    void testConstantDimension() {
+        var constant = new VectorStore(2);
+        constant.add(new float[]{1f, 3f});
+        constant.add(new float[]{1f, 4f});
+        var quantized = QuantizedVectors.encode(constant);
+
+        assertArrayEquals(new float[]{1f, 3f}, quantized.get(0), 1e-6f);
+        assertArrayEquals(new float[]{1f, 4f}, quantized.get(1), 1e-6f);
+    }
+
+    @Test
+    void testKernelsMatchDecodedVectors() {
+        var quantized = QuantizedVectors.encode(store);
+        var query = vectors.get(0);
+        for (int i = 0; i < 20; i++) {
+            var decoded = quantized.get(i);
+            var dot = Kernel.SCALAR.dot(decoded, 0, query, 0, dimension);
+            var distance = Kernel.SCALAR.squaredDistance(decoded, 0, query, 0, dimension);
+            for (var kernel : Kernel.values()) {
+                assertEquals(dot, quantized.dot(i, query, kernel), 1e-2f);
+                assertEquals(distance, quantized.squaredDistance(i, query, kernel), 1e-2f);
+            }
+        }
+    }
+
+    @Test
+    void testQuantizedIndexWithRerank() {
+        var quantized = new Index.Builder()
+                .withNumTrees(3)
+                .withMaxNodeSize(10)
+                .withQuantization(true)
+                .withRerank(4)
+                .add(vectors)
+                .build();
+        var exact = new Index.Builder()
+                .withNumTrees(3)
+                .withMaxNodeSize(10)
+                .add(vectors)
+                .build();
+
+        var query = vectors.get(17);
+        var expected = exact.query(query, 5, vectors.size());
+        var result = quantized.query(query, 5, vectors.size());
+
+        assertEquals(expected.size(), result.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).id(), result.get(i).id());
+            assertEquals(expected.get(i).distance(), result.get(i).distance(), 1e-5f);
+        }
+        assertArrayEquals(query, result.get(0).vector());
+    }
+
+    @Test
+    void testContextReuseAfterRerankWithZeroK() {
+        var quantized = new Index.Builder()
+                .withNumTrees(3)
+                .withMaxNodeSize(10)
+                .withQuantization(true)
+                .withRerank(4)
+                .add(vectors)
+                .build();
+        var query = vectors.get(17);
+        var expected = quantized.query(query, 5, vectors.size(), new QueryContext());
+
+        // Re-ranking zero candidates leaves no candidates behind, but the visited set must still be cleared.
+        var context = new QueryContext();
+        assertTrue(quantized.query(query, 0, vectors.size(), context).isEmpty());
+        var result = quantized.query(query, 5, vectors.size(), context);
+
+        assertEquals(expected.stream().map(Candidate::id).toList(), result.stream().map(Candidate::id).toList());
+        assertThrows(IllegalArgumentException.class, () -> quantized.query(query, -1));
+    }
+
+    @Test
+    void testQuantizedIndexWithoutRerankDropsFullVectors() {
+        var index = new Index.Builder()
+                .withNumTrees(3)
+                .withMaxNodeSize(10)
+                .withQuantization(true)
+                .add(vectors)
+                .build();
+
+        assertNull(index.getFullVectors());
+        var result = index.query(vectors.get(17), 1, vectors.size());
+        assertEquals(17, (int) result.get(0).id());
+    }
+}
@@ -0,0 +1,135 @@
+package io.github.gmodena.searchy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryAsyncTest {
+    private static final int dimension = 8;
+    private static final int k = 10;
+
+    private List<float[]> vectors;
+
+    @BeforeEach
+    void setUp() {
+        vectors = TestVectors.random(new Random(43), 2000, dimension);
+    }
+
+    private Index.Builder builder() {
+        return new Index.Builder().withNumTrees(4).withMaxNodeSize(16).withRandomSeed(42L).add(vectors);
+    }
+
+    private static List<Integer> ids(List<Candidate> candidates) {
+        return candidates.stream().map(Candidate::id).toList();
+    }
+
+    @Test
+    void testMatchesSynchronousQuery() {
+        var index = builder().build();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var query : vectors.subList(0, 20)) {
+                assertEquals(ids(index.query(query, k)), ids(index.queryAsync(query, k, executor).join()));
+                assertEquals(ids(index.query(query, k, 200)),
+                        ids(index.queryAsync(query, k, 200, Duration.ofMinutes(1), executor).join()));
+            }
+        }
+    }
+
+    @Test
+    void testDeadlineStopsTraversal() {
+        var index = builder().withSearchStats(true).build();
+        var stats = index.getSearchStats().orElseThrow();
+
+        // Without a deadline, a budget of every vector scores every vector.
+        index.queryAsync(vectors.get(0), k, vectors.size(), null, Runnable::run).join();
+        assertEquals(vectors.size(), stats.distances().max());
+        stats.reset();
+
+        var partial = index.queryAsync(vectors.get(0), k, vectors.size(), Duration.ZERO, Runnable::run).join();
+        assertEquals(k, partial.size());
+        assertTrue(stats.distances().max() < vectors.size());
+    }
+
+    @Test
+    void testDeadlineExceeded() {
+        var index = builder().build();
+        var context = new QueryContext();
+
+        Query.search(index, vectors.get(0), k, vectors.size(), System.nanoTime(), context);
+        assertTrue(context.deadlineExceeded());
+
+        Query.search(index, vectors.get(0), k, vectors.size(), context);
+        assertFalse(context.deadlineExceeded());
+    }
+
+    @Test
+    void testPartialResultsAreNotCached() {
+        var index = builder().withQueryCache(10, Long.MAX_VALUE).build();
+        var cache = index.getQueryCache().orElseThrow();
+
+        index.queryAsync(vectors.get(0), k, vectors.size(), Duration.ZERO, Runnable::run).join();
+        assertEquals(0, cache.size());
+
+        index.queryAsync(vectors.get(0), k, vectors.size(), null, Runnable::run).join();
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testQueryIsCopied() {
+        var index = builder().build();
+        var tasks = new ArrayList<Runnable>();
+        Executor deferred = tasks::add;
+        var query = vectors.get(5).clone();
+
+        var future = index.queryAsync(query, k, deferred);
+        query[0] += 10.0f;
+        tasks.forEach(Runnable::run);
+
+        assertEquals(ids(index.query(vectors.get(5), k)), ids(future.join()));
+    }
+
+    @Test
+    void testPoolIsBounded() {
+        var contexts = new ArrayList<QueryContext>();
+        for (int i = 0; i < QueryContext.MAX_POOLED + 10; i++) {
+            contexts.add(new QueryContext());
+        }
+        contexts.forEach(QueryContext::release);
+        assertTrue(QueryContext.pooled() <= QueryContext.MAX_POOLED);
+
+        var large = new QueryContext();
+        large.reset(k);
+        for (int position = 0; position < 1_000_000; position++) {
+            large.visit(position);
+        }
+        assertTrue(large.retainedBytes() > QueryContext.MAX_POOLED_BYTES);
+        QueryContext.release(large);
+        for (int i = 0; i < QueryContext.MAX_POOLED; i++) {
+            assertNotSame(large, QueryContext.borrow());
+        }
+    }
+
+    @Test
+    void testValidation() {
+        var index = builder().build();
+
+        assertThrows(IllegalArgumentException.class, () -> index.queryAsync(new float[dimension + 1], k, Runnable::run));
+        assertThrows(IllegalArgumentException.class,
+                () -> index.queryAsync(vectors.get(0), k, null, Duration.ofMillis(-1), Runnable::run));
+        assertThrows(IllegalArgumentException.class,
+                () -> index.queryAsync(vectors.get(0), k, 0, null, Runnable::run));
+        assertThrows(NullPointerException.class, () -> index.queryAsync(vectors.get(0), k, null));
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.gmodena.searchy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryCacheTest {
+    private static final int dimension = 4;
+
+    private List<float[]> vectors;
+
+    @BeforeEach
+    void setUp() {
+        vectors = TestVectors.random(new Random(29), 200, dimension);
+    }
+
+    private Index index(int maxEntries, long maxBytes) {
+        return new Index.Builder()
+                .withNumTrees(2)
+                .withMaxNodeSize(8)
+                .withRandomSeed(42L)
+                .withQueryCache(maxEntries, maxBytes)
+                .add(vectors)
+                .build();
+    }
+
+    @Test
+    void testRepeatedQueriesHit() {
+        var index = index(100, Long.MAX_VALUE);
+        var cache = index.getQueryCache().orElseThrow();
+
+        var first = index.query(vectors.get(0), 5);
+        var second = index.query(vectors.get(0).clone(), 5);
+        var other = index.query(vectors.get(0), 6);
+
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertEquals(1, cache.hitCount());
+        assertEquals(2, cache.missCount());
+        assertEquals(2, cache.size());
+        assertThrows(UnsupportedOperationException.class, () -> first.add(first.get(0)));
+    }
+
+    @Test
+    void testMutatingTheQueryDoesNotChangeTheKey() {
+        var index = index(100, Long.MAX_VALUE);
+        var query = vectors.get(3).clone();
+        var first = index.query(query, 3);
+
+        query[0] += 1.0f;
+
+        assertSame(first, index.query(vectors.get(3), 3));
+    }
+
+    @Test
+    void testEviction() {
+        var index = index(4, Long.MAX_VALUE);
+        var cache = index.getQueryCache().orElseThrow();
+
+        for (int i = 0; i < 50; i++) {
+            index.query(vectors.get(i), 3);
+        }
+
+        assertTrue(cache.size() <= 4);
+        assertTrue(cache.evictionCount() >= 46);
+    }
+
+    @Test
+    void testMemoryBound() {
+        var index = index(1000, 2048);
+        var cache = index.getQueryCache().orElseThrow();
+
+        for (int i = 0; i < 100; i++) {
+            index.query(vectors.get(i), 10);
+        }
+
+        assertTrue(cache.estimatedBytes() <= 2048);
+        assertTrue(cache.size() < 100);
+    }
+
+    @Test
+    void testMutationsInvalidate() {
+        var index = index(100, Long.MAX_VALUE);
+        var cache = index.getQueryCache().orElseThrow();
+        var query = vectors.get(10);
+        assertEquals(10, (int) index.query(query, 1).get(0).id());
+
+        index.delete(10);
+        assertEquals(0, cache.size());
+        assertFalse(index.query(query, 1).stream().anyMatch(candidate -> candidate.id() == 10));
+
+        index.add(query, 1000);
+        assertEquals(1000, (int) index.query(query, 1).get(0).id());
+
+        index.compact();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.hitCount());
+    }
+
+    @Test
+    void testDeserializedIndexHasAnEmptyCache() throws IOException, ClassNotFoundException {
+        var index = index(100, Long.MAX_VALUE);
+        index.query(vectors.get(0), 5);
+
+        var copy = IndexSerializer.deserialize(IndexSerializer.serialize(index));
+
+        assertEquals(0, copy.getQueryCache().orElseThrow().size());
+        assertEquals(index.query(vectors.get(0), 5).get(0).id(), copy.query(vectors.get(0), 5).get(0).id());
+    }
+
+    @Test
+    void testDisabledByDefault() {
+        var index = new Index.Builder().withNumTrees(1).withMaxNodeSize(8).add(vectors).build();
+
+        assertTrue(index.getQueryCache().isEmpty());
+    }
+}
@@ -1,17 +1,23 @@
 package io.github.gmodena.searchy;
 
+import io.github.gmodena.searchy.bsp.JVector;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class QueryTest {
     private ArrayList<float[]> vectors;
@@ -87,4 +93,130 @@ public class QueryTest {
 
         executorService.shutdown();
     }
+
+    @Test
+    void testSIMDSearchMatchesJVector() {
+        var topK = 3;
+        var simdIndex = new Index.Builder()
+                .withNumTrees(3)
+                .withMaxNodeSize(10)
+                .withSIMD(true)
+                .add(vectors, ids)
+                .build();
+
+        var expected = new Query(index, queryVector, topK).search();
+        var result = new Query(simdIndex, queryVector, topK).search();
+        expected.sort(Comparator.comparingInt(Candidate::id));
+        result.sort(Comparator.comparingInt(Candidate::id));
+
+        assertEquals(expected.size(), result.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).id(), result.get(i).id());
+            assertEquals(expected.get(i).distance(), result.get(i).distance(), 1e-4);
+        }
+    }
+
+    @Test
+    void testSearchReturnsVectorIds() {
+        var offsetIds = new ArrayList<Integer>();
+        for (int i = 0; i < vectors.size(); i++) {
+            offsetIds.add(100 + i);
+        }
+        var partitionedIndex = new Index.Builder()
+                .withNumTrees(3)
+                .withMaxNodeSize(2)
+                .withRandomSeed(42L)
+                .add(vectors, offsetIds)
+                .build();
+
+        var result = partitionedIndex.query(vectors.get(4), 1);
+
+        assertEquals(1, result.size());
+        assertEquals(104, result.get(0).id());
+        assertEquals(0f, result.get(0).distance());
+    }
+
+    @Test
+    void testSearchKMatchesBruteForceWhenBudgetCoversIndex() {
+        var random = new Random(42);
+        var data = new ArrayList<float[]>();
+        for (int i = 0; i < 500; i++) {
+            data.add(new float[]{random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat()});
+        }
+        var largeIndex = new Index.Builder()
+                .withNumTrees(4)
+                .withMaxNodeSize(5)
+                .withRandomSeed(42L)
+                .add(data)
+                .build();
+        var topK = 10;
+        var query = new float[]{0.5f, 0.5f, 0.5f, 0.5f};
+
+        var result = largeIndex.query(query, topK, data.size());
+
+        var expected = IntStream.range(0, data.size())
+                .boxed()
+                .sorted(Comparator.comparingDouble(i -> new JVector(data.get(i)).distance(new JVector(query))))
+                .limit(topK)
+                .collect(Collectors.toSet());
+        assertEquals(expected, result.stream().map(Candidate::id).collect(Collectors.toSet()));
+    }
+
+    @Test
+    void testSearchKSmallBudget() {
+        var result = index.query(queryVector, 3, 3);
+        assertEquals(3, result.size());
+    }
+
+    @Test
+    void testBatchQueryReturnsOneResultPerVector() throws Exception {
+        var topK = 2;
+        var batch = List.of(vectors.get(0), vectors.get(5), vectors.get(9));
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+        var results = index.queryBatch(batch, topK, executorService);
+        executorService.shutdown();
+
+        assertEquals(batch.size(), results.size());
+        for (int i = 0; i < batch.size(); i++) {
+            var expected = index.query(batch.get(i), topK).stream().map(Candidate::id).collect(Collectors.toSet());
+            var result = results.get(i).stream().map(Candidate::id).collect(Collectors.toSet());
+            assertEquals(expected, result);
+        }
+        assertNotEquals(results.get(0).stream().map(Candidate::id).collect(Collectors.toSet()),
+                results.get(2).stream().map(Candidate::id).collect(Collectors.toSet()));
+    }
+
+    @Test
+    void testReusedContextReturnsSortedStableResults() {
+        var context = new QueryContext();
+        var topK = 4;
+        var first = index.query(vectors.get(3), topK, null, context);
+        // A larger search in between must not leak state into the next one.
+        index.query(vectors.get(7), vectors.size(), vectors.size(), context);
+        var second = index.query(vectors.get(3), topK, null, context);
+
+        assertEquals(topK, first.size());
+        assertEquals(first.stream().map(Candidate::id).toList(), second.stream().map(Candidate::id).toList());
+        for (int i = 1; i < first.size(); i++) {
+            assertTrue(first.get(i - 1).distance() <= first.get(i).distance());
+        }
+        assertEquals(0.0f, first.get(0).distance());
+    }
+
+    @Test
+    void testNeighborsMatchCandidates() {
+        var topK = 5;
+        var candidates = index.query(queryVector, topK);
+        var neighbors = index.queryNeighbors(queryVector, topK);
+
+        assertEquals(candidates.size(), neighbors.size());
+        for (int i = 0; i < neighbors.size(); i++) {
+            assertEquals(candidates.get(i).id(), neighbors.id(i));
+            assertEquals(candidates.get(i).distance(), neighbors.distance(i));
+            assertArrayEquals(candidates.get(i).vector(), neighbors.vector(i));
+        }
+        assertEquals(candidates.stream().map(Candidate::id).toList(),
+                neighbors.toCandidates().stream().map(Candidate::id).toList());
+    }
 }
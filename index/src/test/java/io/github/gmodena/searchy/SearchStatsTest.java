@@ -0,0 +1,130 @@
+package io.github.gmodena.searchy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchStatsTest {
+    private static final int dimension = 8;
+    private static final int numTrees = 4;
+
+    private List<float[]> vectors;
+
+    @BeforeEach
+    void setUp() {
+        vectors = TestVectors.random(new Random(31), 2000, dimension);
+    }
+
+    private Index index(boolean stats) {
+        return new Index.Builder()
+                .withNumTrees(numTrees)
+                .withMaxNodeSize(16)
+                .withRandomSeed(42L)
+                .withSearchStats(stats)
+                .add(vectors)
+                .build();
+    }
+
+    @Test
+    void testDepthFirstStats() {
+        var index = index(true);
+        var context = new QueryContext();
+
+        var result = index.query(vectors.get(0), 10, null, context);
+        var stats = context.lastStats().orElseThrow();
+
+        assertEquals(10, result.size());
+        assertEquals(numTrees, stats.trees());
+        assertTrue(stats.innerNodes() >= numTrees);
+        assertTrue(stats.leaves() >= numTrees);
+        assertTrue(stats.distances() >= 10);
+        assertEquals(stats.totalNanos(), stats.traversalNanos() + stats.scoringNanos() + stats.resultNanos());
+        assertTrue(stats.totalNanos() > 0);
+    }
+
+    @Test
+    void testSearchKStats() {
+        var index = index(true);
+        var context = new QueryContext();
+
+        // Every tree is exhausted, so each position is reached once per tree.
+        index.query(vectors.get(0), 10, vectors.size() * numTrees, context);
+        var stats = context.lastStats().orElseThrow();
+
+        assertEquals(numTrees, stats.trees());
+        assertEquals(vectors.size(), stats.distances());
+        assertEquals(vectors.size() * (numTrees - 1), stats.duplicates());
+        assertEquals(stats.leaves() - 1, stats.backtracks());
+    }
+
+    @Test
+    void testStatsDoNotChangeResults() {
+        var plain = index(false);
+        var recorded = index(true);
+
+        for (var query : vectors.subList(0, 20)) {
+            assertEquals(plain.query(query, 5).stream().map(Candidate::id).toList(),
+                    recorded.query(query, 5).stream().map(Candidate::id).toList());
+            assertEquals(plain.query(query, 5, 100).stream().map(Candidate::id).toList(),
+                    recorded.query(query, 5, 100).stream().map(Candidate::id).toList());
+        }
+    }
+
+    @Test
+    void testAggregates() {
+        var index = index(true);
+        var stats = index.getSearchStats().orElseThrow();
+
+        for (var query : vectors.subList(0, 50)) {
+            index.query(query, 10);
+        }
+        index.queryNeighbors(vectors.get(0), 10);
+        index.queryBatch(vectors.subList(0, 9), 10);
+
+        assertEquals(60, stats.queries());
+        assertEquals(60, stats.distances().count());
+        assertEquals(numTrees, stats.trees().max());
+        assertTrue(stats.distances().percentile(0.5) <= stats.distances().max());
+        assertTrue(stats.totalNanos().sum() > 0);
+
+        stats.reset();
+        assertEquals(0, stats.queries());
+        assertEquals(0, stats.leaves().count());
+        assertEquals(0, stats.leaves().percentile(0.99));
+    }
+
+    @Test
+    void testDisabledByDefault() {
+        var index = new Index.Builder().withNumTrees(1).withMaxNodeSize(16).add(vectors).build();
+        var context = new QueryContext();
+
+        index.query(vectors.get(0), 10, null, context);
+
+        assertTrue(index.getSearchStats().isEmpty());
+        assertTrue(context.lastStats().isEmpty());
+    }
+
+    @Test
+    void testCachedResultsHaveNoStats() {
+        var index = new Index.Builder()
+                .withNumTrees(numTrees)
+                .withMaxNodeSize(16)
+                .withSearchStats(true)
+                .withQueryCache(10, Long.MAX_VALUE)
+                .add(vectors)
+                .build();
+        var context = new QueryContext();
+
+        index.query(vectors.get(0), 10, null, context);
+        assertTrue(context.lastStats().isPresent());
+        index.query(vectors.get(0), 10, null, context);
+
+        assertTrue(context.lastStats().isEmpty());
+        assertEquals(1, index.getSearchStats().orElseThrow().queries());
+    }
+}
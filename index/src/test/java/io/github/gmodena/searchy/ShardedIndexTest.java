@@ -0,0 +1,167 @@
+package io.github.gmodena.searchy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedIndexTest {
+    private static final int dimension = 8;
+    private static final int k = 10;
+
+    @TempDir
+    Path tempDir;
+
+    private List<float[]> vectors;
+
+    @BeforeEach
+    void setUp() {
+        vectors = TestVectors.random(new Random(41), 3000, dimension);
+    }
+
+    private static Index.Builder shardBuilder() {
+        return new Index.Builder().withNumTrees(4).withMaxNodeSize(16).withRandomSeed(42L);
+    }
+
+    private ShardedIndex build(int shards, ShardedIndex.Partitioning partitioning) {
+        return new ShardedIndex.Builder()
+                .withShards(shards)
+                .withPartitioning(partitioning)
+                .withShardBuilder(ShardedIndexTest::shardBuilder)
+                .add(vectors)
+                .build();
+    }
+
+    private static List<Integer> ids(List<Candidate> candidates) {
+        return candidates.stream().map(Candidate::id).toList();
+    }
+
+    @Test
+    void testExhaustiveQueryIsExact() {
+        var sharded = build(4, ShardedIndex.Partitioning.HASH);
+        var exact = new FlatIndex.Builder().add(vectors).build();
+
+        for (var query : vectors.subList(0, 10)) {
+            // Scoring every vector of every shard makes the merged result exact.
+            assertEquals(ids(exact.query(query, k)), ids(sharded.query(query, k, vectors.size())));
+        }
+    }
+
+    @Test
+    void testPartitioning() {
+        var hashed = build(4, ShardedIndex.Partitioning.HASH);
+        for (var id = 0; id < 100; id++) {
+            assertTrue(hashed.getShard(hashed.shardOf(id)).getVectorIds().contains(id));
+        }
+
+        var roundRobin = build(4, ShardedIndex.Partitioning.ROUND_ROBIN);
+        for (var i = 0; i < 4; i++) {
+            assertEquals(vectors.size() / 4, roundRobin.getShard(i).getVectorIds().size());
+        }
+        assertThrows(UnsupportedOperationException.class, () -> roundRobin.shardOf(0));
+    }
+
+    @Test
+    void testMerge() {
+        var a = List.of(new Candidate(new float[]{0f}, 1, 0.1f), new Candidate(new float[]{0f}, 2, 0.4f));
+        var b = List.of(new Candidate(new float[]{0f}, 3, 0.2f), new Candidate(new float[]{0f}, 4, 0.3f));
+
+        assertEquals(List.of(1, 3, 4), ids(ShardedIndex.merge(List.of(a, List.of(), b), 3)));
+        assertEquals(List.of(1, 3, 4, 2), ids(ShardedIndex.merge(List.of(a, b), 10)));
+    }
+
+    @Test
+    void testWriteOpenAndReplaceShard() throws IOException {
+        var sharded = build(3, ShardedIndex.Partitioning.HASH);
+        sharded.write(tempDir);
+
+        assertTrue(Files.exists(ShardedIndex.shardPath(tempDir, 2)));
+        var opened = ShardedIndex.open(tempDir);
+        assertEquals(3, opened.shardCount());
+        assertEquals(ShardedIndex.Partitioning.HASH, opened.partitioning());
+        for (var query : vectors.subList(0, 10)) {
+            assertEquals(ids(sharded.query(query, k)), ids(opened.query(query, k)));
+        }
+
+        // Rebuild one shard, without the vectors of even ids.
+        var builder = shardBuilder();
+        IntStream.range(0, vectors.size())
+                .filter(id -> id % 2 == 1 && opened.shardOf(id) == 1)
+                .forEach(id -> builder.add(vectors.get(id), id));
+        builder.build().write(ShardedIndex.shardPath(tempDir, 1));
+        opened.replaceShard(1, Index.open(ShardedIndex.shardPath(tempDir, 1)));
+
+        var evenInShard = IntStream.range(0, vectors.size())
+                .filter(id -> id % 2 == 0 && opened.shardOf(id) == 1)
+                .findFirst()
+                .orElseThrow();
+        assertFalse(ids(opened.query(vectors.get(evenInShard), k)).contains(evenInShard));
+    }
+
+    @Test
+    void testAddAndDelete() {
+        var sharded = build(4, ShardedIndex.Partitioning.HASH);
+        var vector = new float[dimension];
+        Arrays.fill(vector, 2.0f);
+
+        sharded.add(vector, 5000);
+        assertEquals(5000, (int) sharded.query(vector, 1).get(0).id());
+        assertTrue(sharded.getShard(sharded.shardOf(5000)).getVectorIds().contains(5000));
+
+        assertTrue(sharded.delete(5000));
+        assertFalse(ids(sharded.query(vector, k)).contains(5000));
+        assertFalse(sharded.delete(5000));
+    }
+
+    @Test
+    void testBuilderValidation() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardedIndex.Builder().withShards(0));
+        assertThrows(IllegalStateException.class, () -> new ShardedIndex.Builder().add(vectors));
+        assertThrows(IllegalStateException.class, () -> new ShardedIndex.Builder().build());
+        assertThrows(IllegalStateException.class, () -> new ShardedIndex.Builder()
+                .withShardBuilder(ShardedIndexTest::shardBuilder)
+                .add(vectors.get(0), 0)
+                .withShards(2));
+    }
+
+    @Test
+    void testFewerVectorsThanShards() throws IOException {
+        var sharded = new ShardedIndex.Builder()
+                .withShards(4)
+                .withPartitioning(ShardedIndex.Partitioning.ROUND_ROBIN)
+                .withShardBuilder(ShardedIndexTest::shardBuilder)
+                .add(vectors.subList(0, 3))
+                .build();
+
+        assertEquals(4, sharded.shardCount());
+        assertTrue(sharded.getShard(3).getVectorIds().isEmpty());
+        assertEquals(List.of(0, 1, 2), ids(sharded.query(vectors.get(0), k, 100)).stream().sorted().toList());
+
+        // The next vector goes to the empty shard.
+        sharded.add(vectors.get(3), 3);
+        assertEquals(List.of(3), sharded.getShard(3).getVectorIds());
+        assertEquals(3, (int) sharded.query(vectors.get(3), 1).get(0).id());
+
+        var hashed = new ShardedIndex.Builder()
+                .withShards(8)
+                .withShardBuilder(ShardedIndexTest::shardBuilder)
+                .add(vectors.subList(0, 2))
+                .build();
+        hashed.write(tempDir);
+        var opened = ShardedIndex.open(tempDir);
+        assertEquals(8, opened.shardCount());
+        assertEquals(ids(hashed.query(vectors.get(1), k)), ids(opened.query(vectors.get(1), k)));
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.gmodena.searchy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Random vector fixtures shared by the tests.
+ */
+final class TestVectors {
+    private TestVectors() {
+    }
+
+    /**
+     * Draws vectors with components uniform in [0, 1).
+     *
+     * @param random
+     * @param count
+     * @param dimension
+     * @return
+     */
+    static List<float[]> random(Random random, int count, int dimension) {
+        return random(random, count, dimension, 0.0f, 1.0f);
+    }
+
+    /**
+     * Draws vectors with components uniform in [low, high).
+     *
+     * @param random
+     * @param count
+     * @param dimension
+     * @param low
+     * @param high
+     * @return
+     */
+    static List<float[]> random(Random random, int count, int dimension, float low, float high) {
+        var vectors = new ArrayList<float[]>(count);
+        for (int i = 0; i < count; i++) {
+            var vector = new float[dimension];
+            for (int j = 0; j < dimension; j++) {
+                vector[j] = random.nextFloat() * (high - low) + low;
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.gmodena.searchy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VectorFilesTest {
+    private static final int dimension = 6;
+
+    @TempDir
+    Path tempDir;
+
+    private List<float[]> vectors;
+
+    @BeforeEach
+    void setUp() {
+        vectors = TestVectors.random(new Random(17), 100, dimension);
+    }
+
+    private Path writeFvecs(List<float[]> vectors) throws IOException {
+        var buffer = ByteBuffer.allocate(vectors.size() * (4 + 4 * dimension)).order(ByteOrder.LITTLE_ENDIAN);
+        for (var vector : vectors) {
+            buffer.putInt(vector.length);
+            for (var value : vector) {
+                buffer.putFloat(value);
+            }
+        }
+        return Files.write(tempDir.resolve("vectors.fvecs"), buffer.array());
+    }
+
+    private Path writeNpy(List<float[]> vectors) throws IOException {
+        var dict = "{'descr': '<f4', 'fortran_order': False, 'shape': (" + vectors.size() + ", " + dimension + "), }";
+        var padding = 64 - (10 + dict.length() + 1) % 64;
+        var header = dict + " ".repeat(padding) + "\n";
+        var buffer = ByteBuffer.allocate(10 + header.length() + vectors.size() * 4 * dimension)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(new byte[]{(byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0});
+        buffer.putShort((short) header.length());
+        buffer.put(header.getBytes(StandardCharsets.ISO_8859_1));
+        for (var vector : vectors) {
+            for (var value : vector) {
+                buffer.putFloat(value);
+            }
+        }
+        return Files.write(tempDir.resolve("vectors.npy"), buffer.array());
+    }
+
+    private void assertIndexed(Index index) {
+        assertEquals(vectors.size(), index.getVectors().size());
+        for (int i = 0; i < vectors.size(); i += 9) {
+            assertArrayEquals(vectors.get(i), index.getVector(i));
+            var result = index.query(vectors.get(i), 1, vectors.size());
+            assertEquals(i, (int) result.get(0).id());
+        }
+    }
+
+    @Test
+    void testAddFvecs() throws IOException {
+        var path = writeFvecs(vectors);
+
+        assertIndexed(new Index.Builder().withNumTrees(2).withMaxNodeSize(8).addFvecs(path).build());
+    }
+
+    @Test
+    void testAddNpy() throws IOException {
+        var path = writeNpy(vectors);
+
+        assertIndexed(new Index.Builder().withNumTrees(2).withMaxNodeSize(8).addNpy(path).build());
+    }
+
+    @Test
+    void testAddIteratorAndStream() {
+        var index = new Index.Builder().withNumTrees(2).withMaxNodeSize(8)
+                .add(vectors.subList(0, 50).iterator())
+                .add(vectors.subList(50, vectors.size()).stream())
+                .build();
+
+        assertIndexed(index);
+    }
+
+    @Test
+    void testTruncatedFvecs() throws IOException {
+        var path = writeFvecs(vectors);
+        var bytes = Files.readAllBytes(path);
+        Files.write(path, java.util.Arrays.copyOf(bytes, bytes.length - 1));
+
+        assertThrows(IOException.class, () -> new Index.Builder().addFvecs(path));
+    }
+
+    @Test
+    void testDimensionMismatch() throws IOException {
+        var path = writeNpy(vectors);
+
+        assertThrows(IOException.class, () -> new Index.Builder().add(new float[dimension + 1]).addNpy(path));
+    }
+}
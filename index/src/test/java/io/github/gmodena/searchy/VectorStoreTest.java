@@ -0,0 +1,52 @@
+package io.github.gmodena.searchy;
+
+import io.github.gmodena.searchy.bsp.VectorStore;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VectorStoreTest {
+
+    @Test
+    void testAddAndGet() {
+        VectorStore store = new VectorStore(3, 1);
+        float[] points1 = {1.0f, 2.0f, 3.0f};
+        float[] points2 = {4.0f, 5.0f, 6.0f};
+
+        assertEquals(0, store.add(points1));
+        assertEquals(1, store.add(points2));
+
+        assertEquals(2, store.size());
+        assertEquals(3, store.offset(1));
+        assertArrayEquals(points1, store.get(0));
+        assertArrayEquals(points2, store.get(1));
+    }
+
+    @Test
+    void testAddCopiesVector() {
+        VectorStore store = new VectorStore(2);
+        float[] points = {1.0f, 2.0f};
+        store.add(points);
+        points[0] = 42.0f;
+
+        assertArrayEquals(new float[]{1.0f, 2.0f}, store.get(0));
+    }
+
+    @Test
+    void testDimensionMismatch() {
+        VectorStore store = new VectorStore(3);
+        assertThrows(IllegalArgumentException.class, () -> store.add(new float[]{1.0f, 2.0f}));
+    }
+
+    @Test
+    void testTrimToSize() {
+        VectorStore store = new VectorStore(2, 10);
+        store.add(new float[]{1.0f, 2.0f});
+        store.trimToSize();
+
+        assertEquals(2, store.data().length);
+        assertArrayEquals(new float[]{1.0f, 2.0f}, store.get(0));
+    }
+}
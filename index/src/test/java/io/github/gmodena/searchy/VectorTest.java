@@ -1,8 +1,11 @@
 package io.github.gmodena.searchy;
 
 import io.github.gmodena.searchy.bsp.JVector;
+import io.github.gmodena.searchy.bsp.SIMDVector;
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -65,4 +68,25 @@ class VectorTest {
 
         assertEquals(expected, result, 1e-6);
     }
+
+    @Test
+    void testSIMDMatchesJVector() {
+        // 37 is not a multiple of any species length, so the scalar tail is exercised too.
+        var random = new Random(42);
+        float[] points1 = new float[37];
+        float[] points2 = new float[37];
+        for (int i = 0; i < points1.length; i++) {
+            points1[i] = random.nextFloat();
+            points2[i] = random.nextFloat();
+        }
+        JVector jvector1 = new JVector(points1);
+        JVector jvector2 = new JVector(points2);
+        SIMDVector simdVector1 = new SIMDVector(points1);
+        SIMDVector simdVector2 = new SIMDVector(points2);
+
+        assertArrayEquals(jvector1.sub(jvector2).raw(), simdVector1.sub(simdVector2).raw());
+        assertArrayEquals(jvector1.mean(jvector2).raw(), simdVector1.mean(simdVector2).raw());
+        assertEquals(jvector1.dot(jvector2), simdVector1.dot(simdVector2), 1e-4);
+        assertEquals(jvector1.distance(jvector2), simdVector1.distance(simdVector2), 1e-4);
+    }
 }
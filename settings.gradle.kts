@@ -2,3 +2,5 @@ rootProject.name = "searchy"
 include("index")
 // alias the index directory to a project name
 project(":index").name="searchy-index"
+include("bench")
+project(":bench").name="searchy-bench"